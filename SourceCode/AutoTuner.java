@@ -0,0 +1,320 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tunes the parallelism settings of a run (-Decpred.autotune=on).
+ * On the first run on a machine, the main classes of a small sample of the
+ * input are predicted under candidate settings, one setting at a time: data
+ * block size, EC concurrency and blastp threads per process on the
+ * main-class pass, and protein concurrency on the subclass walks of the
+ * sample. Each setting is timed twice, from cold hit and feature caches, and
+ * its faster run counts. The settings are stored in
+ * ~/.ecpred/autotune.properties under the host name, -cpu and method, and
+ * reused by later runs.
+ * -Decpred.autotune=recalibrate tunes again, once per JVM, and replaces the
+ * stored settings.
+ */
+public class AutoTuner {
+
+    private static final String MODE = ECPredConfig.getString("autotune", "off");
+    private static final int SAMPLE_SIZE = Math.max(1, ECPredConfig.getInt("autotune.sample", 8));
+    private static final String FILE = ECPredConfig.getString("autotune.file",
+        Paths.get(System.getProperty("user.home"), ".ecpred", "autotune.properties").toString());
+
+    private static final String[] KNOBS = {"blockSize", "ecConcurrency", "proteinConcurrency", "blastThreads"};
+
+    // Settings applied so far in this JVM, by machine key
+    private static final Map<String, int[]> tuned = new HashMap<>();
+
+    public static boolean isEnabled() {
+        return MODE.equalsIgnoreCase("on") || MODE.equalsIgnoreCase("true") || MODE.equalsIgnoreCase("recalibrate");
+    }
+
+    /**
+     * Apply the stored settings of this machine, or calibrate them on a sample
+     * of idlist first. Calls are serialized, and each machine key is
+     * calibrated at most once per JVM, also under recalibrate.
+     */
+    public static synchronized void tune(String[] args, String ROOTPATH, String fastaFile, List<String> idlist, Map<String, String> protSeqs,
+        String tempDir, String method, int cores) throws IOException, InterruptedException
+    {
+        String key = machineKey(method, cores);
+        int[] config = tuned.get(key);
+        if (config != null) {
+            apply(config);
+            System.out.println("Using tuned settings " + describe(config));
+            return;
+        }
+        Properties stored = load();
+        config = read(stored, key);
+        if (config != null && !MODE.equalsIgnoreCase("recalibrate")) {
+            tuned.put(key, config);
+            apply(config);
+            System.out.println("Using tuned settings " + describe(config) + " from " + FILE);
+            return;
+        }
+
+        List<String> sample = sample(idlist, protSeqs, SAMPLE_SIZE);
+        if (sample.isEmpty()) {
+            return;
+        }
+        // Each calibration works in a directory of its own
+        Files.createDirectories(Paths.get(tempDir));
+        String tuneDir = Files.createTempDirectory(Paths.get(tempDir), "autotune_").toString();
+        int[] best = current();
+        long bestMs;
+        try {
+            long time = System.currentTimeMillis();
+            ECPred.createFasta(sample, fastaFile, "sample.fasta", tuneDir);
+            String sampleFasta = tuneDir + File.separator + "sample.fasta";
+            System.out.println("Calibrating parallelism settings on " + sample.size() + " proteins ...");
+
+            Trial trial = new Trial(args, ROOTPATH, fastaFile, sampleFasta, sample, protSeqs, tuneDir, method, cores, time);
+            // Warm up JIT, profiles and libraries before timing anything
+            trial.run(best);
+            bestMs = trial.run(best);
+            for (int knob = 0; knob < KNOBS.length; knob++) {
+                // Protein concurrency only shapes the subclass walks, so they are timed for it
+                boolean walks = KNOBS[knob].equals("proteinConcurrency");
+                long knobMs = walks ? trial.runWalks(best) : bestMs;
+                Set<Integer> tried = new HashSet<>();
+                tried.add(best[knob]);
+                for (int value : candidates(knob, cores)) {
+                    if (!tried.add(value)) {
+                        continue;
+                    }
+                    int[] candidate = best.clone();
+                    candidate[knob] = value;
+                    long ms = walks ? trial.runWalks(candidate) : trial.run(candidate);
+                    System.out.println("[TIMER] Autotune " + describe(candidate) + (walks ? " (subclass walks)" : "") + ": " + ms + " ms");
+                    if (ms < knobMs) {
+                        knobMs = ms;
+                        best = candidate;
+                    }
+                }
+                if (!walks) {
+                    bestMs = knobMs;
+                }
+            }
+        } finally {
+            ECPred.deleteDirectory(new File(tuneDir));
+            seq2vectPSSMtest.evictFastas(tuneDir);
+            PepstatsFeatures.evictFiles(tuneDir);
+            BlastScheduler.evictShards(tuneDir);
+        }
+
+        tuned.put(key, best);
+        apply(best);
+        write(stored, key, best);
+        save(stored);
+        System.out.println("Tuned settings " + describe(best) + " (" + bestMs + " ms on the sample) saved to " + FILE);
+    }
+
+    /**
+     * Timed passes over the sample, as ECPred.predictAll runs them: the
+     * main-class pass, or the subclass walks that follow it. The faster of
+     * two runs counts; each run starts without the cached hits and features
+     * of the sample, so no setting is timed on the work of the one before it.
+     */
+    private static class Trial {
+        private final String[] args;
+        private final String ROOTPATH;
+        private final String fastaFile;
+        private final String sampleFasta;
+        private final List<String> idlist;
+        private final Map<String, String> protSeqs;
+        private final String tempDir;
+        private final String method;
+        private final int cores;
+        private long time;
+        // Main classes of the last main-class pass, where the walks start
+        private HashMap<String, Vector<Vector<String>>> mainPredictions;
+
+        Trial(String[] args, String ROOTPATH, String fastaFile, String sampleFasta, List<String> idlist, Map<String, String> protSeqs,
+            String tempDir, String method, int cores, long time)
+        {
+            this.args = args;
+            this.ROOTPATH = ROOTPATH;
+            this.fastaFile = fastaFile;
+            this.sampleFasta = sampleFasta;
+            this.idlist = idlist;
+            this.protSeqs = protSeqs;
+            this.tempDir = tempDir;
+            this.method = method;
+            this.cores = cores;
+            this.time = time;
+        }
+
+        long run(int[] config) throws IOException, InterruptedException {
+            apply(config);
+            return Math.min(runOnce(), runOnce());
+        }
+
+        long runWalks(int[] config) throws IOException, InterruptedException {
+            apply(config);
+            return Math.min(walkOnce(), walkOnce());
+        }
+
+        private long runOnce() throws IOException, InterruptedException {
+            evictSample();
+            // Each run writes its own result directories
+            time++;
+            long start = System.currentTimeMillis();
+            mainPredictions = new runEC().predictions(args, ROOTPATH, new Vector<>(ECPredLibrary.mainClasses()), time, new HashMap<>(), idlist, sampleFasta, tempDir, method, cores);
+            return System.currentTimeMillis() - start;
+        }
+
+        private long walkOnce() throws IOException, InterruptedException {
+            evictSample();
+            // The walks add their levels to the predictions, so each run starts from a copy
+            ConcurrentHashMap<String, Vector<Vector<String>>> predictions = new ConcurrentHashMap<>();
+            for (Map.Entry<String, Vector<Vector<String>>> entry : mainPredictions.entrySet()) {
+                predictions.put(entry.getKey(), new Vector<>(entry.getValue()));
+            }
+            time++;
+            long start = System.currentTimeMillis();
+            ECPred.predictSubclasses(args, ROOTPATH, fastaFile, time, method, tempDir, predictions, protSeqs, null, new runEC(), cores, null, null);
+            return System.currentTimeMillis() - start;
+        }
+
+        private void evictSample() {
+            for (String id : idlist) {
+                BlastHitCache.evict(id);
+                PepstatsFeatures.evict(protSeqs.get(id));
+            }
+        }
+    }
+
+    /**
+     * Up to n proteins spread evenly over the length range of idlist
+     */
+    static List<String> sample(List<String> idlist, Map<String, String> protSeqs, int n) {
+        List<String> byLength = new ArrayList<>(idlist);
+        byLength.sort((a, b) -> Integer.compare(protSeqs.get(a).length(), protSeqs.get(b).length()));
+        if (byLength.size() <= n) {
+            return byLength;
+        }
+        List<String> sample = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            sample.add(byLength.get((int) ((long) i * (byLength.size() - 1) / Math.max(1, n - 1))));
+        }
+        return sample;
+    }
+
+    private static int[] candidates(int knob, int cores) {
+        switch (KNOBS[knob]) {
+            case "blockSize":
+                return new int[] {8, 32, 128};
+            case "ecConcurrency":
+                return new int[] {0, Math.max(1, cores / 2), Math.max(1, cores / 4)};
+            case "proteinConcurrency":
+                return new int[] {0, cores, Math.max(1, cores / 2)};
+            default:
+                return new int[] {0, 1, 2};
+        }
+    }
+
+    // Knobs of the calling task's executor, i.e. of the engine or the command line being tuned
+    private static int[] current() {
+        ParallelExecutor executor = ParallelExecutor.getInstance();
+        return new int[] {
+            executor.getBlockSize(),
+            executor.getEcConcurrency(),
+            executor.getProteinConcurrency(),
+            executor.getBlastThreads()
+        };
+    }
+
+    private static void apply(int[] config) {
+        ParallelExecutor executor = ParallelExecutor.getInstance();
+        executor.setBlockSize(config[0]);
+        executor.setEcConcurrency(config[1]);
+        executor.setProteinConcurrency(config[2]);
+        executor.setBlastThreads(config[3]);
+    }
+
+    private static String describe(int[] config) {
+        StringBuilder sb = new StringBuilder();
+        for (int knob = 0; knob < KNOBS.length; knob++) {
+            sb.append(knob == 0 ? "" : ", ").append(KNOBS[knob]).append('=').append(config[knob] == 0 && knob > 0 ? "auto" : String.valueOf(config[knob]));
+        }
+        return sb.toString();
+    }
+
+    private static String machineKey(String method, int cores) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + ".cpu" + cores + "." + method;
+    }
+
+    private static int[] read(Properties stored, String key) {
+        int[] config = new int[KNOBS.length];
+        for (int knob = 0; knob < KNOBS.length; knob++) {
+            String value = stored.getProperty(key + "." + KNOBS[knob]);
+            if (value == null) {
+                return null;
+            }
+            try {
+                config[knob] = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return config;
+    }
+
+    private static void write(Properties stored, String key, int[] config) {
+        for (int knob = 0; knob < KNOBS.length; knob++) {
+            stored.setProperty(key + "." + KNOBS[knob], String.valueOf(config[knob]));
+        }
+    }
+
+    private static Properties load() {
+        Properties stored = new Properties();
+        Path path = Paths.get(FILE);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                stored.load(in);
+            } catch (IOException e) {
+                System.err.println("Warning: Ignoring unreadable " + FILE + ": " + e.getMessage());
+            }
+        }
+        return stored;
+    }
+
+    private static void save(Properties stored) {
+        Path path = Paths.get(FILE);
+        Path tmpPath = Paths.get(FILE + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (OutputStream out = Files.newOutputStream(tmpPath)) {
+                stored.store(out, "ECPred autotune settings");
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save tuned settings to " + FILE + ": " + e.getMessage());
+        }
+    }
+}
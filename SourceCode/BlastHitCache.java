@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of BLAST hits per protein, keyed by library sequence ID.
+ * Filled from every BLAST search (main-class pass and subclass levels), so a
+ * child EC whose training sequences were all part of an already searched
+ * database can be scored by relabelling the cached hits with the child's
+ * positive/negative sets instead of running blastp again.
+ */
+public class BlastHitCache {
+
+    private static final boolean ENABLED = ECPredConfig.getBoolean("blast.hitcache", true);
+
+    // Best subjects kept per search; deeper hits never reach the k nearest
+    private static final int DEPTH = ECPredConfig.getInt("blast.hitcache.depth", 50);
+
+    private static final Map<String, ProteinHits> cache = new ConcurrentHashMap<>();
+
+    // positive.ids + negative.ids of each EC directory, i.e. the sequences of its BLAST database
+    private static final Map<String, Set<String>> librarySets = new ConcurrentHashMap<>();
+
+    /**
+     * Hits of one protein over all databases searched for it
+     */
+    private static class ProteinHits {
+        // library ID -> [bitScore, ...] (all HSPs, as reported), best subjects first
+        final LinkedHashMap<String, List<String>> hits = new LinkedHashMap<>();
+        // Databases searched with at least one hit, i.e. those that bound the floor
+        final Set<String> searched = new HashSet<>();
+        // No unreported member of a searched database scores above this
+        double floor = Double.NEGATIVE_INFINITY;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Record the result of searching the database of ecnum with the given proteins.
+     * hits is in the layout of Blast.parseTabBlast (sorted by decreasing score).
+     * A search that found nothing for a protein only says its members score
+     * below the e-value cutoff, which gives no floor, so that database does
+     * not count as searched for the protein.
+     */
+    public static void record(String ROOTPATH, String ecnum, List<String> proteinIds, Map<String, List<List<String>>> hits) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        librarySet(ROOTPATH, ecnum);
+        String library = ROOTPATH + File.separator + ecnum;
+        for (String protein : proteinIds) {
+            List<List<String>> list = hits.get(protein);
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+            ProteinHits entry = cache.computeIfAbsent(protein, p -> new ProteinHits());
+            synchronized (entry) {
+                entry.searched.add(library);
+                LinkedHashMap<String, List<String>> kept = new LinkedHashMap<>();
+                double lowest = Double.POSITIVE_INFINITY;
+                for (List<String> hit : list) {
+                    String id = hit.get(0);
+                    if (!kept.containsKey(id)) {
+                        if (kept.size() == DEPTH) {
+                            break;
+                        }
+                        kept.put(id, new ArrayList<>());
+                    }
+                    kept.get(id).add(hit.get(1));
+                    lowest = Math.min(lowest, Double.parseDouble(hit.get(1)));
+                }
+                entry.floor = Math.max(entry.floor, lowest);
+                for (Map.Entry<String, List<String>> hit : kept.entrySet()) {
+                    entry.hits.putIfAbsent(hit.getKey(), hit.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hits of protein against the database of ecnum, rebuilt from cached hits,
+     * or null if blastp has to be run. Cached hits are used only when every
+     * training sequence of ecnum was part of a searched database and the k
+     * nearest labelled hits all score above what any unreported sequence could.
+     */
+    public static List<List<String>> lookup(String ROOTPATH, String protein, String ecnum, int k) throws IOException {
+        if (!ENABLED) {
+            return null;
+        }
+        ProteinHits entry = cache.get(protein);
+        if (entry == null) {
+            return null;
+        }
+        Set<String> childSet = librarySet(ROOTPATH, ecnum);
+        List<List<String>> relabelled = new ArrayList<>();
+        double floor;
+        synchronized (entry) {
+            if (!covered(childSet, entry.searched)) {
+                return null;
+            }
+            floor = entry.floor;
+            for (Map.Entry<String, List<String>> hit : entry.hits.entrySet()) {
+                if (!childSet.contains(hit.getKey())) {
+                    continue;
+                }
+                for (String score : hit.getValue()) {
+                    List<String> row = new ArrayList<>();
+                    row.add(hit.getKey());
+                    row.add(score);
+                    relabelled.add(row);
+                }
+            }
+        }
+        if (relabelled.size() < k) {
+            return null;
+        }
+        relabelled.sort((a, b) -> Double.compare(Double.parseDouble(b.get(1)), Double.parseDouble(a.get(1))));
+        if (Double.parseDouble(relabelled.get(k - 1).get(1)) <= floor) {
+            return null;
+        }
+        return relabelled;
+    }
+
+    private static boolean covered(Set<String> childSet, Set<String> searched) {
+        List<Set<String>> searchedSets = new ArrayList<>();
+        for (String ec : searched) {
+            Set<String> set = librarySets.get(ec);
+            if (set != null) {
+                searchedSets.add(set);
+            }
+        }
+        for (String id : childSet) {
+            boolean found = false;
+            for (Set<String> set : searchedSets) {
+                if (set.contains(id)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> librarySet(String ROOTPATH, String ecnum) throws IOException {
+        String library = ROOTPATH + File.separator + ecnum;
+        Set<String> set = librarySets.get(library);
+        if (set == null) {
+            set = new HashSet<>();
+            set.addAll(Files.readAllLines(Paths.get(library + "/positive.ids")));
+            set.addAll(Files.readAllLines(Paths.get(library + "/negative.ids")));
+            librarySets.putIfAbsent(library, set);
+            set = librarySets.get(library);
+        }
+        return set;
+    }
+
+    /**
+     * Drop the hits of a protein once its hierarchy has been predicted
+     */
+    public static void evict(String protein) {
+        cache.remove(protein);
+    }
+
+    public static void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scheduler for blastp runs against a single EC database.
+ * Splits the query FASTA into length-balanced shards and chooses
+ * -num_threads so that all concurrently running blastp processes
+ * fit into the given core budget.
+ */
+public class BlastScheduler {
+
+    // Shards with fewer residues than this are not worth an extra process
+    private static final long MIN_SHARD_RESIDUES = 2000;
+
+    // Shard files are written once per query FASTA and shard count
+    private static final ConcurrentHashMap<String, List<Shard>> shardCache = new ConcurrentHashMap<>();
+
+    /**
+     * Shard count and blastp thread count for one EC database search
+     */
+    public static class Plan {
+        final int shards;
+        final int threads;
+
+        Plan(int shards, int threads) {
+            this.shards = shards;
+            this.threads = threads;
+        }
+
+        @Override
+        public String toString() {
+            return shards + " shard(s) x " + threads + " thread(s)";
+        }
+    }
+
+    /**
+     * A part of the query FASTA file
+     */
+    static class Shard {
+        final String path;
+        final int sequences;
+        final long residues;
+
+        Shard(String path, int sequences, long residues) {
+            this.path = path;
+            this.sequences = sequences;
+            this.residues = residues;
+        }
+    }
+
+    private static class Record {
+        final String header;
+        final String sequence;
+
+        Record(String header, String sequence) {
+            this.header = header;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Choose shard and thread counts for one of concurrentJobs EC searches
+     * that share coreBudget cores.
+     */
+    public static Plan plan(int concurrentJobs, int sequenceCount, long totalResidues, int coreBudget) {
+        int jobs = Math.max(1, Math.min(concurrentJobs, coreBudget));
+        int coresPerJob = Math.max(1, coreBudget / jobs);
+        long byResidues = Math.max(1, totalResidues / MIN_SHARD_RESIDUES);
+        int shards = (int) Math.max(1, Math.min(coresPerJob, Math.min(sequenceCount, byResidues)));
+        int threads = Math.max(1, coresPerJob / shards);
+        // Largest -num_threads per blastp process of the calling executor; 0 lets the plan decide
+        int maxThreads = ParallelExecutor.getInstance().getBlastThreads();
+        if (maxThreads > 0) {
+            threads = Math.min(threads, maxThreads);
+        }
+        return new Plan(shards, threads);
+    }
+
+    /**
+     * Plan a search of fastaFile, reading its sequence count and length
+     */
+    public static Plan plan(int concurrentJobs, String fastaFile, int coreBudget) throws IOException {
+        List<Record> records = readRecords(fastaFile);
+        long residues = 0;
+        for (Record r : records) {
+            residues += r.sequence.length();
+        }
+        return plan(concurrentJobs, records.size(), residues, coreBudget);
+    }
+
+    /**
+     * Run blastp for the given plan and write the merged tabular output to outFile.
+     * Shards are started together and merged in shard order, so all hits of a
+     * query stay contiguous as Blast.parseTabBlast expects.
+     */
+    public static void run(String blastp, String fastaFile, String db, String outFile, int evalue, Plan plan, String label)
+        throws IOException, InterruptedException
+    {
+        // The calling task's core token covers one blastp thread; borrow the rest
+        int borrowed = CoreGovernor.borrow(plan.shards * plan.threads - 1);
+        try {
+            runPlan(blastp, fastaFile, db, outFile, evalue, granted(plan, borrowed + 1), label);
+        } finally {
+            CoreGovernor.giveBack(borrowed);
+        }
+    }
+
+    /**
+     * Shrink a plan to the cores granted by the governor, dropping threads
+     * per shard before shards
+     */
+    static Plan granted(Plan plan, int cores) {
+        if (cores >= plan.shards * plan.threads) {
+            return plan;
+        }
+        int shards = Math.max(1, Math.min(plan.shards, cores));
+        return new Plan(shards, Math.max(1, cores / shards));
+    }
+
+    private static void runPlan(String blastp, String fastaFile, String db, String outFile, int evalue, Plan plan, String label)
+        throws IOException, InterruptedException
+    {
+        if (plan.shards <= 1) {
+            Process process = start(blastp, fastaFile, db, outFile, evalue, plan.threads);
+            waitFor(process);
+            return;
+        }
+
+        List<Shard> shards = getShards(fastaFile, plan.shards);
+        Process[] processes = new Process[shards.size()];
+        long[] startTimes = new long[shards.size()];
+        for (int i = 0; i < shards.size(); i++) {
+            startTimes[i] = System.currentTimeMillis();
+            processes[i] = start(blastp, shards.get(i).path, db, outFile + "." + i, evalue, plan.threads);
+        }
+
+        List<CompletableFuture<Long>> elapsed = new ArrayList<>();
+        for (int i = 0; i < processes.length; i++) {
+            final long started = startTimes[i];
+            elapsed.add(processes[i].onExit().thenApply(p -> System.currentTimeMillis() - started));
+        }
+        for (int i = 0; i < processes.length; i++) {
+            waitFor(processes[i]);
+        }
+
+        try (OutputStream out = Files.newOutputStream(Paths.get(outFile))) {
+            for (int i = 0; i < shards.size(); i++) {
+                Path part = Paths.get(outFile + "." + i);
+                if (Files.exists(part)) {
+                    Files.copy(part, out);
+                    Files.delete(part);
+                }
+            }
+        }
+
+        synchronized (System.out) {
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i);
+                long ms = elapsed.get(i).join();
+                System.out.println("[TIMER] BLAST " + label + " shard " + (i + 1) + "/" + shards.size()
+                    + " (" + shard.sequences + " seqs, " + shard.residues + " aa, " + plan.threads + " threads): " + ms + " ms");
+            }
+        }
+    }
+
+    private static Process start(String blastp, String query, String db, String out, int evalue, int threads)
+        throws IOException, InterruptedException
+    {
+        ProcessBuilder pb = new ProcessBuilder(blastp,
+            "-query", query,
+            "-db", db,
+            "-outfmt", "6",
+            "-out", out,
+            "-evalue", String.valueOf(evalue),
+            "-num_threads", String.valueOf(threads));
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        return ExternalProcesses.start(pb);
+    }
+
+    private static void waitFor(Process process) {
+        try {
+            ExternalProcesses.waitFor(process);
+        } catch (InterruptedException e) {
+            System.out.print("blastp is not working!");
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get (and write on first use) the shards of a query FASTA file
+     */
+    static List<Shard> getShards(String fastaFile, int shardCount) throws IOException {
+        File f = new File(fastaFile);
+        String key = f.getAbsolutePath() + ":" + shardCount + ":" + f.lastModified() + ":" + f.length();
+        try {
+            return shardCache.computeIfAbsent(key, k -> {
+                try {
+                    return writeShards(fastaFile, shardCount);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drop the cached shards of the query FASTA files whose path starts with
+     * prefix, e.g. once their result directory is deleted
+     */
+    static void evictShards(String prefix) {
+        String absolute = new File(prefix).getAbsolutePath();
+        shardCache.keySet().removeIf(key -> key.startsWith(absolute));
+    }
+
+    /**
+     * Longest-first greedy assignment of sequences to the shard with the
+     * fewest residues so far.
+     */
+    private static List<Shard> writeShards(String fastaFile, int shardCount) throws IOException {
+        List<Record> records = readRecords(fastaFile);
+        int n = Math.max(1, Math.min(shardCount, records.size()));
+
+        Integer[] order = new Integer[records.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(records.get(b).sequence.length(), records.get(a).sequence.length()));
+
+        long[] load = new long[n];
+        List<List<Record>> bins = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            bins.add(new ArrayList<>());
+        }
+        for (int idx : order) {
+            int best = 0;
+            for (int b = 1; b < n; b++) {
+                if (load[b] < load[best]) {
+                    best = b;
+                }
+            }
+            bins.get(best).add(records.get(idx));
+            load[best] += records.get(idx).sequence.length();
+        }
+
+        Path dir = Paths.get(new File(fastaFile).getAbsoluteFile().getParent(), "blast_shards_" + n);
+        Files.createDirectories(dir);
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Path shardPath = dir.resolve("shard_" + i + ".fasta");
+            try (BufferedWriter writer = Files.newBufferedWriter(shardPath, StandardCharsets.UTF_8)) {
+                for (Record r : bins.get(i)) {
+                    writer.write(r.header);
+                    writer.newLine();
+                    writer.write(r.sequence);
+                    writer.newLine();
+                }
+            }
+            shards.add(new Shard(shardPath.toString(), bins.get(i).size(), load[i]));
+        }
+        return shards;
+    }
+
+    private static List<Record> readRecords(String fastaFile) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(fastaFile))) {
+            String header = null;
+            StringBuilder seq = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    if (header != null) {
+                        records.add(new Record(header, seq.toString()));
+                    }
+                    header = line;
+                    seq.setLength(0);
+                } else {
+                    seq.append(line.trim());
+                }
+            }
+            if (header != null) {
+                records.add(new Record(header, seq.toString()));
+            }
+        }
+        return records;
+    }
+}
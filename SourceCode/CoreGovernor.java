@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Core tokens shared by the scheduler's CPU work and the external tools.
+ * Every ParallelExecutor has a governor with one token per core of its
+ * budget (-cpu or the engine's threads, capped by the container CPU quota),
+ * and the static methods act on the governor of the calling task's executor.
+ * A scheduler task holds a token while it runs and gives it back while it
+ * waits for subtasks; an external tool runs on the token of the task that
+ * launched it plus any extra tokens it can borrow (blastp -num_threads).
+ * So runnable JVM threads plus tool threads stay within the budget.
+ */
+public class CoreGovernor {
+
+    private static final boolean ENABLED = ECPredConfig.getBoolean("coreGovernor", true);
+
+    // Tokens held by the current thread
+    private static final ThreadLocal<int[]> held = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final int cores;
+    private final Semaphore tokens;
+
+    /**
+     * Governor of a ParallelExecutor with the given budget
+     */
+    CoreGovernor(int cores) {
+        this.cores = Math.max(1, cores);
+        this.tokens = new Semaphore(this.cores, true);
+    }
+
+    private static CoreGovernor current() {
+        return ParallelExecutor.getInstance().governor();
+    }
+
+    /**
+     * Core budget for a requested number of cores, capped by the container
+     * CPU quota
+     */
+    public static int budget(int requested) {
+        int budget = Math.max(1, requested);
+        int quota = quotaCores();
+        if (quota > 0 && quota < budget) {
+            System.out.println("CPU quota of this container is " + quota + " cores; using " + quota + " instead of " + budget);
+            budget = quota;
+        }
+        return budget;
+    }
+
+    /**
+     * Core budget of the calling task's executor
+     */
+    public static int cores() {
+        return current().cores;
+    }
+
+    /**
+     * Run a CPU task on a core token. Reentrant: a thread that already holds
+     * a token runs the task on it.
+     */
+    public static <T> T run(Callable<T> task) throws Exception {
+        int[] count = held.get();
+        if (!ENABLED || count[0] > 0) {
+            return task.call();
+        }
+        // A plain wait: a managed block would have the scheduler start a spare
+        // worker per waiter, and each spare would only wait for a token too
+        Semaphore taken = current().tokens;
+        taken.acquire();
+        count[0] = 1;
+        try {
+            return task.call();
+        } finally {
+            count[0] = 0;
+            taken.release();
+        }
+    }
+
+    /**
+     * Give back the tokens of the current thread before it waits for other
+     * tasks; returns the number to pass to resume
+     */
+    public static int suspend() {
+        int[] count = held.get();
+        int n = count[0];
+        if (n > 0) {
+            count[0] = 0;
+            current().tokens.release(n);
+        }
+        return n;
+    }
+
+    /**
+     * Take back the tokens given back by suspend
+     */
+    public static void resume(int n) {
+        if (n > 0) {
+            current().tokens.acquireUninterruptibly(n);
+            held.get()[0] = n;
+        }
+    }
+
+    /**
+     * Borrow up to wanted extra tokens for an external tool without waiting;
+     * returns the number borrowed. The launching task's own token covers the
+     * tool's first thread.
+     */
+    public static int borrow(int wanted) {
+        if (!ENABLED) {
+            return wanted;
+        }
+        Semaphore tokens = current().tokens;
+        int borrowed = 0;
+        while (borrowed < wanted && tokens.tryAcquire()) {
+            borrowed++;
+        }
+        return borrowed;
+    }
+
+    /**
+     * Return tokens taken by borrow
+     */
+    public static void giveBack(int borrowed) {
+        if (ENABLED && borrowed > 0) {
+            current().tokens.release(borrowed);
+        }
+    }
+
+    /**
+     * Cores allowed by the cgroup CPU quota, or 0 if there is no quota
+     */
+    static int quotaCores() {
+        try {
+            // cgroup v2: "<quota> <period>" or "max <period>"
+            Path cpuMax = Paths.get("/sys/fs/cgroup/cpu.max");
+            if (Files.isReadable(cpuMax)) {
+                String[] fields = Files.readAllLines(cpuMax).get(0).trim().split("\\s+");
+                if (fields.length == 2 && !fields[0].equals("max")) {
+                    return quotaCores(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                }
+                return 0;
+            }
+            // cgroup v1
+            for (String dir : new String[] {"/sys/fs/cgroup/cpu", "/sys/fs/cgroup/cpu,cpuacct"}) {
+                Path quota = Paths.get(dir, "cpu.cfs_quota_us");
+                Path period = Paths.get(dir, "cpu.cfs_period_us");
+                if (Files.isReadable(quota) && Files.isReadable(period)) {
+                    return quotaCores(readLong(quota), readLong(period));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // No readable quota
+        }
+        return 0;
+    }
+
+    private static int quotaCores(long quota, long period) {
+        if (quota <= 0 || period <= 0) {
+            return 0;
+        }
+        return (int) Math.max(1, (quota + period - 1) / period);
+    }
+
+    private static long readLong(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+        return Long.parseLong(lines.get(0).trim());
+    }
+}
@@ -23,6 +23,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -33,12 +34,21 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.concurrent.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class ECPred {
 
 	
 		
 	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("server")) {
+			ECPredServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("daemon")) {
+			ECPredDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		if (args.length < 4)
 	    {
 	      System.out.println("Missing Argument(s)!");
@@ -62,6 +72,17 @@ public class ECPred {
 	      System.out.println("method argument must be one of the followings: blast, spmap, pepstats, weighted");
 	      System.exit(0);
 	    }
+		if (args[1].equals("-")) {
+			// Streaming: FASTA records from stdin, one output line per protein as soon as it is predicted
+			if (!ECPredStream.run(args))
+				System.exit(1);
+			return;
+		}
+		if (ECPredDaemon.isEnabled()) {
+			// The run is done by the background daemon, which keeps the library loaded
+			ECPredDaemon.client(args);
+			return;
+		}
 	    String fastaFile = args[1];
 		String ROOTPATH = java.nio.file.Paths.get(args[2], "lib", "EC").toString();
 	    String file_namepart1 = "";
@@ -100,6 +121,7 @@ public class ECPred {
 	            userCpuCount = Runtime.getRuntime().availableProcessors();
 	        }
 	    }
+	    userCpuCount = CoreGovernor.budget(userCpuCount);
 	    ParallelExecutor.setUserCpuCount(userCpuCount);
 		
 		String dateandtime = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
@@ -139,146 +161,16 @@ public class ECPred {
 		ConcurrentHashMap<String, Vector<Vector<String>>> predictions = new ConcurrentHashMap<>();
 		System.out.println("Main classes of input proteins are being predicted ...");
 		
-		final String finalTempDir = tempDir;
-		final long finalTime = time;
-		final String finalFastaFile = fastaFile;
-		final String finalROOTPATH = ROOTPATH;
-		final String finalMethod = method;
-		final String[] finalArgs = args;
-		
-		createFasta(idlist, fastaFile, "test.fasta", tempDir + File.separator + "testResult" + File.separator + time);
-		String newfasta = tempDir + File.separator + "testResult" + File.separator + time + File.separator + "test.fasta"; 
-		
-		// First pass: predict main classes for all proteins
-		ParallelExecutor.getInstance().setEcClassLevelThreads(userCpuCount);
-		int blastThreads = Math.max(1, userCpuCount / 6);
-		
-		long t4 = System.currentTimeMillis();
-		HashMap<String, Vector<Vector<String>>> mainPredictions = runECobj.predictions(args, ROOTPATH, ecnums, time, new HashMap<>(), idlist, newfasta, tempDir, method, blastThreads);
-		predictions.putAll(mainPredictions);
-		
-		// Second pass: predict subclasses for each protein in parallel
-	// Use ParallelExecutor for consistent thread pool management
-	ParallelExecutor executor = ParallelExecutor.getInstance();
-	List<CompletableFuture<Void>> proteinFutures = new ArrayList<>();
-
-	// Submit protein tasks using ParallelExecutor
-	long t5 = System.currentTimeMillis();
-	for (Map.Entry<String, Vector<Vector<String>>> entry : predictions.entrySet()) {
-		if (entry.getValue().get(0).get(0).equals("non") || entry.getValue().get(0).get(0).equals("nop"))
-			continue;
-
-		final String proteinKey = entry.getKey();
-		final String proteinTempDir = tempDir + File.separator + "testResult" + File.separator + finalTime + "_" + proteinKey.hashCode();
-		
-		CompletableFuture<Void> proteinFuture = executor.submitProteinTask(() -> {
-			try {
-				synchronized(System.out) {
-					if(protID.get(proteinKey).length()>81)
-						System.out.println("Subclasses of "+protID.get(proteinKey).substring(1,81) + " are being predicted ...");
-					else
-						System.out.println("Subclasses of "+protID.get(proteinKey).substring(1,protID.get(proteinKey).length()) + " are being predicted ...");
-				}
-				
-				for(int i = 1 ; i<4; i++){
-					List<String> ecList = Files.readAllLines(Paths.get(finalROOTPATH.substring(0, finalROOTPATH.length()-3)+"/subclasses/"+ predictions.get(proteinKey).get(i-1).get(0) + ".txt"));
-					if(ecList.size()==0){
-						Vector<String> preds = new Vector<>();
-						preds.add("nop");
-						preds.add("");
-						synchronized(predictions.get(proteinKey)) {
-							predictions.get(proteinKey).add(preds);
-						}
-						break;
-					}
-
-					Vector<String> ecnumsLocal = new Vector<>() ;
-					ecnumsLocal.addAll(ecList);
-					List<String> idlistLocal = new Vector<String>();
-					idlistLocal.add(proteinKey);
-					
-					synchronized(ECPred.class) {
-						createFasta(idlistLocal, finalFastaFile, "test.fasta", proteinTempDir);
-					}
-					final String newfastaLocal = proteinTempDir + File.separator + "test.fasta";
-					
-					HashMap<String, Vector<Vector<String>>> subPredictions = runECobj.predictions(finalArgs, finalROOTPATH, ecnumsLocal, finalTime, new HashMap<>(), idlistLocal, newfastaLocal, proteinTempDir, finalMethod, 1);
-					
-					if(subPredictions.containsKey(proteinKey)) {
-						Vector<Vector<String>> subPreds = subPredictions.get(proteinKey);
-						if(subPreds.size() > 0) {
-							synchronized(predictions.get(proteinKey)) {
-								predictions.get(proteinKey).addAll(subPreds);
-							}
-						}
-					}
-					
-					if(predictions.get(proteinKey).size() > i && predictions.get(proteinKey).get(i).get(0).equals("nop"))
-						break;
-				}
-			} catch (Exception e) {
-				System.err.println("Error predicting subclasses for protein " + proteinKey + ": " + e.getMessage());
-				e.printStackTrace();
-			}
-			return null;
-		});
-
-		proteinFutures.add(proteinFuture);
-	}
-	
-	// Wait for all protein predictions to complete
-	try {
-		CompletableFuture.allOf(proteinFutures.toArray(new CompletableFuture[0])).join();
-	} catch (Exception e) {
-		System.err.println("Error in parallel protein processing: " + e.getMessage());
-		e.printStackTrace();
-	}
-	System.out.println("[TIMER] Subclass prediction: " + (System.currentTimeMillis() - t5) + " ms");
+		predictProteins(args, ROOTPATH, fastaFile, time, method, tempDir, ecnums, idlist, protSeqs, protID, predictions, runECobj, userCpuCount, null);
 	// Now collect results for output, ensuring all subclass predictions are present
 Map<String, List<String>> finalResults = new ConcurrentHashMap<>();
-for (String id : all_idlist) {
-	StringBuilder sb = new StringBuilder();
-	if (protID.get(id).length() > 81)
-		sb.append(protID.get(id).substring(1, 81));
-	else
-		sb.append(protID.get(id).substring(1, protID.get(id).length()));
-	if (!idlist.contains(id)) {
-		sb.append("\tSequence too short\t");
-		sb.append("");
-		finalResults.put(id, List.of(sb.toString()));
-		continue;
-	}
-	if (!predictions.containsKey(id)) {
-		sb.append("\tPrediction error\t");
-		sb.append("");
-		finalResults.put(id, List.of(sb.toString()));
-		continue;
-	}
-	Vector<Vector<String>> predVec = predictions.get(id);
-	if (predVec.get(0).get(0).equals("non")) {
-		double conf = Double.parseDouble(predVec.get(0).get(1));
-		sb.append("\tnon Enzyme\t").append(String.format("%.2f", conf));
-	} else if (predVec.get(0).get(0).equals("nop")) {
-		sb.append("\tno Prediction");
-	} else {
-		// Find the most specific (deepest) prediction that is not "nop"
-		int bestIdx = 0;
-		for (int i = 1; i < predVec.size(); i++) {
-			if (!predVec.get(i).get(0).equals("nop") && predVec.get(i).get(0).contains(".")) {
-				bestIdx = i;
-			} else {
-				break;
-			}
-		}
-		sb.append("\t").append(predVec.get(bestIdx).get(0)).append("\t").append(predVec.get(bestIdx).get(1));
-	}
-	finalResults.put(id, List.of(sb.toString()));
-}
+for (String id : all_idlist)
+	finalResults.put(id, List.of(resultLine(id, idlist, protID, predictions)));
 
 	long t6 = System.currentTimeMillis();
 	if (!output.equals("stdout")) {
 		try (PrintWriter predFile = new PrintWriter(output, "UTF-8")) {
-			predFile.println("Protein ID\tEC Number\tConfidence Score(max 1.0)");
+			predFile.println(RESULT_HEADER);
 			for (String id : all_idlist) {
 				if (finalResults.containsKey(id)) {
 					predFile.println(finalResults.get(id).get(0));
@@ -286,7 +178,7 @@ for (String id : all_idlist) {
 			}
 		}
 	} else {
-		System.out.println("Protein ID\tEC Number\tConfidence Score(max 1.0)");
+		System.out.println(RESULT_HEADER);
 		for (String id : idlist) {
 			if (finalResults.containsKey(id)) {
 				System.out.println(finalResults.get(id).get(0));
@@ -322,11 +214,107 @@ for (String id : all_idlist) {
 				if (tempResultDir.exists()) {
 					deleteDirectory(tempResultDir);
 				}
+				BlastScheduler.evictShards(tempResultDir.getPath());
 			} catch (Exception e) {
 				System.err.println("Warning: Could not clean up temporary directory: " + e.getMessage());
 			}
 	}
 	
+	static final String RESULT_HEADER = "Protein ID\tEC Number\tConfidence Score(max 1.0)";
+
+	/**
+	 * Output line of one protein: its header, the deepest predicted EC and
+	 * its score, or why there is none
+	 */
+	static String resultLine(String id, List<String> idlist, Map<String, String> protID, Map<String, Vector<Vector<String>>> predictions) {
+		return resultLine(protID.get(id), ECPredEngine.Result.of(idlist.contains(id), predictions.get(id)));
+	}
+
+	static String resultLine(String header, ECPredEngine.Result result) {
+		if (header.length() > 81)
+			return header.substring(1, 81) + result.columns();
+		else
+			return header.substring(1, header.length()) + result.columns();
+	}
+
+	/**
+	 * Predictions of the proteins of idlist (sequences of fastaFile longer
+	 * than 40 residues) into predictions; works in tempDir/testResult/time.
+	 * finished (may be null) gets the key of each protein whose prediction
+	 * is complete.
+	 */
+	static void predictProteins(String[] args, String ROOTPATH, String fastaFile, long time, String method, String tempDir, Vector<String> ecnums,
+			List<String> idlist, Map<String, String> protSeqs, Map<String, String> protID, ConcurrentHashMap<String, Vector<Vector<String>>> predictions,
+			runEC runECobj, int userCpuCount, Consumer<String> finished) throws IOException, InterruptedException {
+		if (idlist.size() == 1 && SequencePredictor.isEnabled()) {
+			// One protein: every EC and method of a level at once, in memory
+			long t4 = System.currentTimeMillis();
+			String proteinKey = idlist.get(0);
+			SequencePredictor predictor = new SequencePredictor(ECPredLibrary.get(ROOTPATH), method, tempDir + File.separator + "testResult" + File.separator + time, userCpuCount);
+			try {
+				predictions.put(proteinKey, predictor.predict(proteinKey, protSeqs.get(proteinKey)));
+				if (finished != null)
+					finished.accept(proteinKey);
+			} catch (IOException e) {
+				System.err.println("Error predicting protein " + proteinKey + ": " + e.getMessage());
+				e.printStackTrace();
+			}
+			System.out.println("[TIMER] Single-sequence prediction: " + (System.currentTimeMillis() - t4) + " ms");
+		} else if (!idlist.isEmpty()) {
+			predictAll(args, ROOTPATH, fastaFile, time, method, tempDir, ecnums, idlist, protSeqs, protID, predictions, runECobj, userCpuCount, finished);
+		}
+	}
+
+	/**
+	 * Main classes of all proteins in one batch pass over idlist, then the
+	 * subclass walks of the proteins that have one; finished as in
+	 * predictProteins
+	 */
+	static void predictAll(String[] args, String ROOTPATH, String fastaFile, long time, String method, String tempDir, Vector<String> ecnums,
+			List<String> idlist, Map<String, String> protSeqs, Map<String, String> protID, ConcurrentHashMap<String, Vector<Vector<String>>> predictions,
+			runEC runECobj, int userCpuCount, Consumer<String> finished) throws IOException, InterruptedException {
+		createFasta(idlist, fastaFile, "test.fasta", tempDir + File.separator + "testResult" + File.separator + time);
+		String newfasta = tempDir + File.separator + "testResult" + File.separator + time + File.separator + "test.fasta"; 
+		
+		if (AutoTuner.isEnabled())
+			AutoTuner.tune(args, ROOTPATH, fastaFile, idlist, protSeqs, tempDir, method, userCpuCount);
+		
+		// First pass: predict main classes for all proteins
+		ParallelExecutor.getInstance().setEcClassLevelThreads(userCpuCount);
+		int blastCores = userCpuCount;
+		
+		// Speculation starts the first subclass level of the leading main classes while the main pass runs
+		SpeculativeDescent speculation = SpeculativeDescent.isEnabled()
+			? new SpeculativeDescent(args, ROOTPATH, fastaFile, time, method, tempDir, idlist, userCpuCount) : null;
+		if (speculation != null)
+			runECobj.setCombineListener(speculation::scored);
+		
+		long t4 = System.currentTimeMillis();
+		HashMap<String, Vector<Vector<String>>> mainPredictions = runECobj.predictions(args, ROOTPATH, ecnums, time, new HashMap<>(), idlist, newfasta, tempDir, method, blastCores);
+		predictions.putAll(mainPredictions);
+		long mainPassMs = System.currentTimeMillis() - t4;
+		if (speculation != null) {
+			runECobj.setCombineListener(null);
+			speculation.resolve(predictions);
+		}
+		
+		// Second pass: predict subclasses for each protein in parallel
+		long t5 = System.currentTimeMillis();
+		ProteinScheduler proteinScheduler = predictSubclasses(args, ROOTPATH, fastaFile, time, method, tempDir, predictions, protSeqs, protID, runECobj, userCpuCount, speculation, finished);
+		long subclassMs = System.currentTimeMillis() - t5;
+		System.out.println("[TIMER] Subclass prediction: " + subclassMs + " ms");
+		if (speculation != null)
+			speculation.report(protSeqs);
+		if (proteinScheduler.size() > 0) {
+			// One cost unit is one residue scored for one EC; the main pass gives its cost per worker
+			long mainPassResidues = 0;
+			for (String id : idlist)
+				mainPassResidues += protSeqs.get(id).length();
+			double msPerUnit = (double) mainPassMs * userCpuCount / Math.max(1, mainPassResidues * ecnums.size());
+			proteinScheduler.report(subclassMs, msPerUnit);
+		}
+	}
+
 	public static boolean deleteDirectory(File directory) {
 	    if(directory.exists()){
 	        File[] files = directory.listFiles();
@@ -454,6 +442,208 @@ for (String id : all_idlist) {
 			}
 		}
 	}
+
+	/**
+	 * Walk the subclasses of every protein that has a main class, longest
+	 * first, and wait for all walks. protID is used for progress messages and
+	 * may be null. With speculation, the first level of a walk takes the
+	 * speculative prediction of its main class when there is one. finished
+	 * (may be null) gets the key of each protein without a walk and of each
+	 * protein whose walk has ended. Returns the schedule of the walks.
+	 */
+	static ProteinScheduler predictSubclasses(String[] args, String ROOTPATH, String fastaFile, long time, String method, String tempDir,
+			ConcurrentHashMap<String, Vector<Vector<String>>> predictions, Map<String, String> protSeqs, Map<String, String> protID, runEC runECobj, int userCpuCount,
+			SpeculativeDescent speculation, Consumer<String> finished) throws IOException {
+		int subclassProteins = 0;
+		for (Map.Entry<String, Vector<Vector<String>>> entry : predictions.entrySet()) {
+			String mainClass = entry.getValue().get(0).get(0);
+			if (!mainClass.equals("non") && !mainClass.equals("nop"))
+				subclassProteins++;
+			else {
+				BlastHitCache.evict(entry.getKey());
+				PepstatsFeatures.evict(protSeqs.get(entry.getKey()));
+				if (finished != null)
+					finished.accept(entry.getKey());
+			}
+		}
+		// Proteins are walked concurrently, so each one gets its share of the BLAST core budget
+		final int subclassBlastCores = Math.max(1, userCpuCount / Math.max(1, Math.min(userCpuCount, subclassProteins)));
+		// Start the walks longest first, by sequence length times child ECs
+		ProteinScheduler proteinScheduler = new ProteinScheduler(userCpuCount);
+		for (Map.Entry<String, Vector<Vector<String>>> entry : predictions.entrySet()) {
+			String mainClass = entry.getValue().get(0).get(0);
+			if (mainClass.equals("non") || mainClass.equals("nop"))
+				continue;
+			List<String> children = Files.readAllLines(Paths.get(ROOTPATH.substring(0, ROOTPATH.length()-3)+"/subclasses/"+ mainClass + ".txt"));
+			proteinScheduler.add(entry.getKey(), protSeqs.get(entry.getKey()).length(), children.size());
+		}
+
+		// Walks are started in order; with a concurrency limit, each finished walk starts the next one
+		final int proteinConcurrency = ParallelExecutor.getInstance().getProteinConcurrency();
+		ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>(proteinScheduler.order());
+		List<CompletableFuture<Void>> proteinFutures = new ArrayList<>();
+		Map<String, CompletableFuture<Void>> done = new HashMap<>();
+		for (String proteinKey : pending) {
+			CompletableFuture<Void> proteinFuture = new CompletableFuture<>();
+			done.put(proteinKey, proteinFuture);
+			proteinFutures.add(proteinFuture);
+		}
+		Runnable[] startNext = new Runnable[1];
+		startNext[0] = () -> {
+			String proteinKey = pending.poll();
+			if (proteinKey == null)
+				return;
+			final String proteinTempDir = tempDir + File.separator + "testResult" + File.separator + time + "_" + proteinKey.hashCode();
+
+			if (protID != null) {
+				synchronized(System.out) {
+					if(protID.get(proteinKey).length()>81)
+						System.out.println("Subclasses of "+protID.get(proteinKey).substring(1,81) + " are being predicted ...");
+					else
+						System.out.println("Subclasses of "+protID.get(proteinKey).substring(1,protID.get(proteinKey).length()) + " are being predicted ...");
+				}
+			}
+
+			// Each level of the descent is its own task, chained on the previous one
+			SubclassWalk walk = new SubclassWalk(args, ROOTPATH, fastaFile, time, method, proteinKey, proteinTempDir, subclassBlastCores, predictions, runECobj, speculation);
+			walk.level(1)
+				.exceptionally(e -> {
+					Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+					System.err.println("Error predicting subclasses for protein " + proteinKey + ": " + cause.getMessage());
+					cause.printStackTrace();
+					return null;
+				})
+				.whenComplete((v, e) -> {
+					BlastHitCache.evict(proteinKey);
+					PepstatsFeatures.evict(protSeqs.get(proteinKey));
+					if (finished != null)
+						finished.accept(proteinKey);
+					done.get(proteinKey).complete(null);
+					if (proteinConcurrency > 0)
+						startNext[0].run();
+				});
+		};
+		int started = proteinConcurrency > 0 ? Math.min(proteinConcurrency, proteinFutures.size()) : proteinFutures.size();
+		for (int i = 0; i < started; i++)
+			startNext[0].run();
+
+		// Wait for all protein predictions to complete
+		try {
+			CompletableFuture.allOf(proteinFutures.toArray(new CompletableFuture[0])).join();
+		} catch (Exception e) {
+			System.err.println("Error in parallel protein processing: " + e.getMessage());
+			e.printStackTrace();
+		}
+		return proteinScheduler;
+	}
+
+	/**
+	 * Subclass descent of one protein: level i predicts the children of the
+	 * EC found at level i-1 and, unless it ends the walk, chains level i+1.
+	 * Levels are submitted as separate tasks, so no worker waits on a level.
+	 */
+	private static class SubclassWalk {
+		private final String[] args;
+		private final String ROOTPATH;
+		private final String fastaFile;
+		private final long time;
+		private final String method;
+		private final String proteinKey;
+		private final String proteinTempDir;
+		private final int blastCores;
+		private final ConcurrentHashMap<String, Vector<Vector<String>>> predictions;
+		private final runEC runECobj;
+		private final SpeculativeDescent speculation;
+
+		SubclassWalk(String[] args, String ROOTPATH, String fastaFile, long time, String method, String proteinKey, String proteinTempDir,
+				int blastCores, ConcurrentHashMap<String, Vector<Vector<String>>> predictions, runEC runECobj, SpeculativeDescent speculation) {
+			this.args = args;
+			this.ROOTPATH = ROOTPATH;
+			this.fastaFile = fastaFile;
+			this.time = time;
+			this.method = method;
+			this.proteinKey = proteinKey;
+			this.proteinTempDir = proteinTempDir;
+			this.blastCores = blastCores;
+			this.predictions = predictions;
+			this.runECobj = runECobj;
+			this.speculation = speculation;
+		}
+
+		CompletableFuture<Void> level(int i) {
+			CompletableFuture<Boolean> next;
+			CompletableFuture<HashMap<String, Vector<Vector<String>>>> speculative = i == 1 && speculation != null
+				? speculation.take(proteinKey, predictions.get(proteinKey).get(0).get(0)) : null;
+			if (speculative != null) {
+				// Predicted while the main pass ran; predict it again only if that failed
+				next = speculative.thenApply(subPredictions -> merge(i, subPredictions))
+					.exceptionallyCompose(e -> ParallelExecutor.getInstance().submitProteinTask(() -> predictLevel(i)));
+			} else {
+				next = ParallelExecutor.getInstance().submitProteinTask(() -> predictLevel(i));
+			}
+			return next.thenCompose(goOn -> goOn && i < 3 ? level(i + 1) : CompletableFuture.completedFuture(null));
+		}
+
+		/**
+		 * Predict level i; returns whether the walk goes on
+		 */
+		private boolean predictLevel(int i) {
+			try {
+				String parentEC = predictions.get(proteinKey).get(i-1).get(0);
+				return merge(i, predictChildren(args, ROOTPATH, fastaFile, time, method, proteinKey, parentEC, proteinTempDir, blastCores, runECobj));
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}
+
+		/**
+		 * Add the predictions of level i, null if its parent EC has no
+		 * children; returns whether the walk goes on
+		 */
+		private boolean merge(int i, HashMap<String, Vector<Vector<String>>> subPredictions) {
+			if (subPredictions == null) {
+				Vector<String> preds = new Vector<>();
+				preds.add("nop");
+				preds.add("");
+				synchronized(predictions.get(proteinKey)) {
+					predictions.get(proteinKey).add(preds);
+				}
+				return false;
+			}
+			if(subPredictions.containsKey(proteinKey)) {
+				Vector<Vector<String>> subPreds = subPredictions.get(proteinKey);
+				if(subPreds.size() > 0) {
+					synchronized(predictions.get(proteinKey)) {
+						predictions.get(proteinKey).addAll(subPreds);
+					}
+				}
+			}
+			return !(predictions.get(proteinKey).size() > i && predictions.get(proteinKey).get(i).get(0).equals("nop"));
+		}
+	}
+
+	/**
+	 * Predictions of the children of parentEC for one protein, in its own
+	 * directory proteinTempDir; null if parentEC has no children
+	 */
+	static HashMap<String, Vector<Vector<String>>> predictChildren(String[] args, String ROOTPATH, String fastaFile, long time, String method, String proteinKey,
+			String parentEC, String proteinTempDir, int blastCores, runEC runECobj) throws IOException, InterruptedException {
+		List<String> ecList = Files.readAllLines(Paths.get(ROOTPATH.substring(0, ROOTPATH.length()-3)+"/subclasses/"+ parentEC + ".txt"));
+		if(ecList.size()==0)
+			return null;
+
+		Vector<String> ecnumsLocal = new Vector<>() ;
+		ecnumsLocal.addAll(ecList);
+		List<String> idlistLocal = new Vector<String>();
+		idlistLocal.add(proteinKey);
+
+		synchronized(ECPred.class) {
+			createFasta(idlistLocal, fastaFile, "test.fasta", proteinTempDir);
+		}
+		final String newfastaLocal = proteinTempDir + File.separator + "test.fasta";
+
+		return runECobj.predictions(args, ROOTPATH, ecnumsLocal, time, new HashMap<>(), idlistLocal, newfastaLocal, proteinTempDir, method, blastCores);
+	}
 	
 	
 }
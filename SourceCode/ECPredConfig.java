@@ -0,0 +1,47 @@
+/**
+ * Optional settings for ECPred.
+ * Settings are given as Java system properties, e.g.
+ * java -Decpred.blast.backend=java -jar ECPred.jar ...
+ */
+public class ECPredConfig {
+
+    private static final String PREFIX = "ecpred.";
+
+    /**
+     * Get a string setting, or def if it is not set
+     */
+    public static String getString(String name, String def) {
+        String value = System.getProperty(PREFIX + name);
+        if (value == null || value.trim().isEmpty()) {
+            return def;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Get an integer setting, or def if it is not set or not a number
+     */
+    public static int getInt(String name, int def) {
+        String value = getString(name, null);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Warning: Ignoring invalid value for " + PREFIX + name + ": " + value);
+            return def;
+        }
+    }
+
+    /**
+     * Get a boolean setting, or def if it is not set
+     */
+    public static boolean getBoolean(String name, boolean def) {
+        String value = getString(name, null);
+        if (value == null) {
+            return def;
+        }
+        return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes");
+    }
+}
@@ -0,0 +1,430 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background ECPred process shared by command-line runs (-Decpred.daemon=true).
+ * The command line then only sends its arguments over a Unix domain socket
+ * (ecpred.daemon.socket) and writes the lines it gets back, so the JVM
+ * startup and library loading are paid once by the daemon instead of by
+ * every run. A run that finds no daemon starts one
+ * (java -jar ECPred.jar daemon [threads]) with the ecpred settings of the
+ * run; the daemon keeps one warm ECPredEngine per method, library, tempDir
+ * and threads of a job, runs jobs concurrently, and exits after
+ * ecpred.daemon.idleSeconds without jobs. The ecpred settings are read once
+ * per JVM, so a job whose settings differ from the daemon's is refused.
+ *
+ * Protocol, one UTF-8 line each: the client sends PROTOCOL, the number of
+ * ecpred settings and the settings (name=value), the number of arguments
+ * and the arguments; the daemon answers with "R\t<line number>\t<output line>"
+ * lines as proteins are predicted, in any order, and ends with "D\t<ms>",
+ * or with "E\t<message>" on failure. The client writes the lines in order.
+ */
+public class ECPredDaemon {
+
+    private static final boolean ENABLED = ECPredConfig.getBoolean("daemon", false);
+    private static final String SOCKET = ECPredConfig.getString("daemon.socket",
+        Paths.get(System.getProperty("user.home"), ".ecpred", "daemon.sock").toString());
+    private static final int IDLE_SECONDS = Math.max(1, ECPredConfig.getInt("daemon.idleSeconds", 900));
+
+    private static final String PROTOCOL = "ECPRED-DAEMON 2";
+    // How long a client waits for a daemon it started to accept connections
+    private static final long START_TIMEOUT_MS = 30000;
+
+    private final int cores;
+    private final Map<String, String> settings = settings();
+    private final ServerSocketChannel server;
+    private final Map<String, ECPredEngine> engines = new ConcurrentHashMap<>();
+    private int activeJobs;
+    private long lastActivity = System.currentTimeMillis();
+    private boolean closing;
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    private ECPredDaemon(int cores, ServerSocketChannel server) {
+        this.cores = cores;
+        this.server = server;
+    }
+
+    /**
+     * Daemon: java -jar ECPred.jar daemon [threads]
+     */
+    public static void main(String[] args) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (args.length > 0) {
+            try {
+                cores = Math.max(1, Integer.parseInt(args[0]));
+            } catch (NumberFormatException e) {
+                // Keep all processors
+            }
+        }
+        Path socket = Paths.get(SOCKET);
+        Files.createDirectories(socket.toAbsolutePath().getParent());
+        if (Files.exists(socket)) {
+            SocketChannel running = connect(socket);
+            if (running != null) {
+                running.close();
+                System.out.println("An ECPred daemon is already listening on " + socket);
+                return;
+            }
+            // Left behind by a daemon that did not exit cleanly
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            // Another daemon started at the same moment
+            System.out.println("Could not listen on " + socket + ": " + e.getMessage());
+            server.close();
+            return;
+        }
+        cores = CoreGovernor.budget(cores);
+        System.out.println("ECPred daemon listening on " + socket + " with " + cores + " threads");
+        try {
+            new ECPredDaemon(cores, server).serve();
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Accept jobs until the daemon has been idle for IDLE_SECONDS
+     */
+    private void serve() throws IOException {
+        AtomicInteger handlerCount = new AtomicInteger();
+        ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ECPredDaemon-" + handlerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ECPredDaemonIdle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        idleCheck.scheduleWithFixedDelay(this::closeIfIdle, 1, 1, TimeUnit.SECONDS);
+        try {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (AsynchronousCloseException e) {
+                    break;
+                }
+                synchronized (this) {
+                    activeJobs++;
+                }
+                handlers.execute(() -> {
+                    try {
+                        handle(channel);
+                    } finally {
+                        synchronized (this) {
+                            activeJobs--;
+                            lastActivity = System.currentTimeMillis();
+                        }
+                    }
+                });
+            }
+        } finally {
+            idleCheck.shutdownNow();
+            for (ECPredEngine engine : engines.values()) {
+                engine.close();
+            }
+            System.out.println("ECPred daemon idle for " + IDLE_SECONDS + " s; exiting");
+        }
+    }
+
+    private synchronized void closeIfIdle() {
+        if (!closing && activeJobs == 0 && System.currentTimeMillis() - lastActivity >= IDLE_SECONDS * 1000L) {
+            closing = true;
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the daemon socket: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel c = channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8))) {
+            if (!PROTOCOL.equals(in.readLine())) {
+                return;
+            }
+            Map<String, String> jobSettings = new TreeMap<>();
+            int settingCount = Integer.parseInt(in.readLine());
+            for (int i = 0; i < settingCount; i++) {
+                String setting = in.readLine();
+                int eq = setting.indexOf('=');
+                jobSettings.put(setting.substring(0, eq), setting.substring(eq + 1));
+            }
+            String[] args = new String[Integer.parseInt(in.readLine())];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readLine();
+            }
+            if (!jobSettings.equals(settings)) {
+                out.println("E\tThe ECPred daemon on " + SOCKET + " runs with the settings " + settings + ", not " + jobSettings
+                    + "; give this run another -Decpred.daemon.socket or let that daemon exit first");
+                return;
+            }
+            long t0 = System.currentTimeMillis();
+            try {
+                run(args, out);
+                out.println("D\t" + (System.currentTimeMillis() - t0));
+                System.out.println("[TIMER] Daemon job " + args[1] + ": " + (System.currentTimeMillis() - t0) + " ms");
+            } catch (Exception e) {
+                System.err.println("Error in daemon job " + String.join(" ", args) + ": " + e.getMessage());
+                out.println("E\t" + String.valueOf(e.getMessage()).replace('\n', ' '));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading a daemon job: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send the output lines of a run with the command-line arguments args
+     * (method inputFile libraryDir tempDir [outputFile] [threads]) to out as
+     * ECPred writes them: to stdout only the predicted proteins, to a file
+     * all of them. Each protein's line is sent as soon as it is predicted.
+     */
+    private void run(String[] args, PrintWriter out) throws IOException, InterruptedException {
+        ECPredEngine engine = engine(args[0], args[2], args[3], threads(args));
+        ECPredServer.Request request = ECPredServer.parse(new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8));
+        boolean toFile = args.length > 4;
+        // Line numbers are known up front, since only too short sequences are left out
+        int[] lineOf = new int[request.sequences.size()];
+        int lines = 1;
+        for (int i = 0; i < lineOf.length; i++) {
+            boolean written = toFile || ECPredEngine.checkSequence(request.sequences.get(i)).length() > 40;
+            lineOf[i] = written ? lines++ : -1;
+        }
+        send(out, 0, ECPred.RESULT_HEADER);
+        engine.predict(request.sequences, (i, result) -> {
+            if (lineOf[i] >= 0) {
+                send(out, lineOf[i], ECPred.resultLine(request.headers.get(i), result));
+            }
+        });
+    }
+
+    private static void send(PrintWriter out, int line, String text) {
+        synchronized (out) {
+            out.println("R\t" + line + "\t" + text);
+            out.flush();
+        }
+    }
+
+    /**
+     * Threads of a job: its threads argument, or those of the daemon
+     */
+    private int threads(String[] args) {
+        if (args.length > 5) {
+            try {
+                int threads = Integer.parseInt(args[5]);
+                if (threads > 0) {
+                    return threads;
+                }
+            } catch (NumberFormatException e) {
+                // Keep the daemon's threads
+            }
+        }
+        return cores;
+    }
+
+    /**
+     * Warm engine of a method, library, tempDir and thread count, created on
+     * its first job
+     */
+    private synchronized ECPredEngine engine(String method, String libraryDir, String tempDir, int threads) throws IOException {
+        String key = method + File.pathSeparator + libraryDir + File.pathSeparator + tempDir + File.pathSeparator + threads;
+        ECPredEngine engine = engines.get(key);
+        if (engine == null) {
+            engine = new ECPredEngine(method, libraryDir, tempDir, threads).warm();
+            engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * ecpred settings of this JVM that a job must share with the daemon, i.e.
+     * all but those of the daemon itself
+     */
+    private static Map<String, String> settings() {
+        Map<String, String> settings = new TreeMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("ecpred.") && !name.equals("ecpred.daemon") && !name.startsWith("ecpred.daemon.")) {
+                settings.put(name, System.getProperty(name));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Client: run the command line args on the daemon, starting one if none
+     * is listening, and write the results where ECPred would
+     */
+    public static void client(String[] args) throws IOException, InterruptedException {
+        String[] job = args.clone();
+        // The daemon has its own working directory
+        for (int i = 1; i <= 3; i++) {
+            job[i] = new File(args[i]).getAbsolutePath();
+        }
+        Path socket = Paths.get(SOCKET);
+        PrintWriter out = args.length > 4
+            ? new PrintWriter(args[4], "UTF-8")
+            : new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            boolean answered = false;
+            // A daemon that closes for idleness as the job arrives is started again
+            for (int attempt = 0; attempt < 2 && !answered; attempt++) {
+                SocketChannel channel = connect(socket);
+                if (channel == null) {
+                    channel = spawn(socket, args.length > 5 ? args[5] : null);
+                }
+                answered = submit(channel, job, out);
+            }
+            if (!answered) {
+                throw new IOException("The ECPred daemon on " + socket + " closed the connection");
+            }
+        } finally {
+            if (args.length > 4) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Write the output lines of a job to out in order as they arrive; false
+     * if the daemon went away without answering
+     */
+    private static boolean submit(SocketChannel channel, String[] job, PrintWriter out) throws IOException {
+        try (SocketChannel c = channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+             PrintWriter request = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8))) {
+            request.println(PROTOCOL);
+            Map<String, String> settings = settings();
+            request.println(settings.size());
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                request.println(setting.getKey() + "=" + setting.getValue());
+            }
+            request.println(job.length);
+            for (String arg : job) {
+                request.println(arg);
+            }
+            request.flush();
+            // Lines that arrive before the lines above them are held back
+            Map<Integer, String> held = new HashMap<>();
+            int next = 0;
+            boolean received = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("R\t")) {
+                    received = true;
+                    int tab = line.indexOf('\t', 2);
+                    held.put(Integer.parseInt(line.substring(2, tab)), line.substring(tab + 1));
+                    while (held.containsKey(next)) {
+                        out.println(held.remove(next++));
+                    }
+                    out.flush();
+                } else if (line.startsWith("D\t")) {
+                    System.err.println("[TIMER] Daemon job: " + line.substring(2) + " ms");
+                    return true;
+                } else if (line.startsWith("E\t")) {
+                    throw new IOException(line.substring(2));
+                }
+            }
+            if (received) {
+                throw new IOException("The ECPred daemon closed the connection before the job was done");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Connected channel to a listening daemon, or null if there is none
+     */
+    private static SocketChannel connect(Path socket) throws IOException {
+        if (!Files.exists(socket)) {
+            return null;
+        }
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            return channel;
+        } catch (ConnectException e) {
+            channel.close();
+            return null;
+        }
+    }
+
+    /**
+     * Start a daemon with the ecpred settings of this run and wait until it
+     * accepts connections
+     */
+    private static SocketChannel spawn(Path socket, String threads) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("ecpred.") && !name.equals("ecpred.daemon")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("ECPred");
+        command.add("daemon");
+        if (threads != null) {
+            command.add(threads);
+        }
+        File log = new File(socket.toAbsolutePath() + ".log");
+        log.getParentFile().mkdirs();
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+        Process daemon = pb.start();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            SocketChannel channel = connect(socket);
+            if (channel != null) {
+                return channel;
+            }
+            if (!daemon.isAlive() && daemon.exitValue() != 0) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        throw new IOException("The ECPred daemon did not start; see " + log);
+    }
+}
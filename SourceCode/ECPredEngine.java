@@ -0,0 +1,341 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ECPred as a Java API, for use inside another JVM service:
+ *
+ *   try (ECPredEngine engine = new ECPredEngine("weighted", "/path/to/ECPred", "/tmp/ecpred", 8)) {
+ *       engine.warm();
+ *       List<ECPredEngine.Result> results = engine.predict(sequences);
+ *   }
+ *
+ * An engine has a scheduler, a core budget and tuning knobs of its own and a
+ * handle on the EC library, and predict may be called from many threads at
+ * once. Each call works in a
+ * result directory of its own under tempDir and uses protein keys unique in
+ * the JVM, so the shared model, profile and feature caches never mix up the
+ * proteins of concurrent calls. Bad input is an IllegalArgumentException;
+ * nothing calls System.exit.
+ */
+public class ECPredEngine implements AutoCloseable {
+
+    private static final Pattern SPECIAL_CHARACTER = Pattern.compile("[^A-Z ]", Pattern.CASE_INSENSITIVE);
+
+    // Result directories (tempDir/testResult/<time>) and protein keys are unique across engines
+    private static final AtomicLong lastTime = new AtomicLong();
+    private static final AtomicLong proteinCount = new AtomicLong();
+
+    /**
+     * Outcome of the prediction of one sequence
+     */
+    public enum Status {
+        ENZYME, NON_ENZYME, NO_PREDICTION, TOO_SHORT, ERROR
+    }
+
+    /**
+     * One predicted level of the EC hierarchy
+     */
+    public static class Level {
+        public final String ec;
+        public final double score;
+        // Score as written to the output file
+        final String text;
+
+        Level(String ec, String text) {
+            this.ec = ec;
+            this.score = Double.parseDouble(text);
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return ec + " (" + text + ")";
+        }
+    }
+
+    /**
+     * Hierarchical prediction of one sequence: the predicted ECs from the main
+     * class down to the most specific one, each with its score
+     */
+    public static class Result {
+        public final Status status;
+        public final List<Level> levels;
+        // Confidence of a non-enzyme prediction, NaN otherwise
+        public final double nonEnzymeConfidence;
+
+        private Result(Status status, List<Level> levels, double nonEnzymeConfidence) {
+            this.status = status;
+            this.levels = Collections.unmodifiableList(levels);
+            this.nonEnzymeConfidence = nonEnzymeConfidence;
+        }
+
+        /**
+         * Result of a protein from its predictions as ECPred keeps them
+         * (entry 0 the main class, then one entry per subclass level); null
+         * predictions are an error, predicted false a sequence too short
+         */
+        static Result of(boolean predicted, Vector<Vector<String>> predVec) {
+            if (!predicted) {
+                return new Result(Status.TOO_SHORT, new ArrayList<>(), Double.NaN);
+            }
+            if (predVec == null) {
+                return new Result(Status.ERROR, new ArrayList<>(), Double.NaN);
+            }
+            String mainClass = predVec.get(0).get(0);
+            if (mainClass.equals("non")) {
+                return new Result(Status.NON_ENZYME, new ArrayList<>(), Double.parseDouble(predVec.get(0).get(1)));
+            }
+            if (mainClass.equals("nop")) {
+                return new Result(Status.NO_PREDICTION, new ArrayList<>(), Double.NaN);
+            }
+            // Down to the most specific (deepest) prediction that is not "nop"
+            List<Level> levels = new ArrayList<>();
+            levels.add(new Level(mainClass, predVec.get(0).get(1)));
+            for (int i = 1; i < predVec.size(); i++) {
+                if (!predVec.get(i).get(0).equals("nop") && predVec.get(i).get(0).contains(".")) {
+                    levels.add(new Level(predVec.get(i).get(0), predVec.get(i).get(1)));
+                } else {
+                    break;
+                }
+            }
+            return new Result(Status.ENZYME, levels, Double.NaN);
+        }
+
+        /**
+         * Most specific predicted EC, or null
+         */
+        public String ec() {
+            return levels.isEmpty() ? null : levels.get(levels.size() - 1).ec;
+        }
+
+        /**
+         * Score of the most specific predicted EC, NaN if there is none
+         */
+        public double score() {
+            return levels.isEmpty() ? Double.NaN : levels.get(levels.size() - 1).score;
+        }
+
+        /**
+         * EC and score columns of the output file
+         */
+        String columns() {
+            switch (status) {
+                case TOO_SHORT:
+                    return "\tSequence too short\t";
+                case ERROR:
+                    return "\tPrediction error\t";
+                case NON_ENZYME:
+                    return "\tnon Enzyme\t" + String.format("%.2f", nonEnzymeConfidence);
+                case NO_PREDICTION:
+                    return "\tno Prediction";
+                default:
+                    Level deepest = levels.get(levels.size() - 1);
+                    return "\t" + deepest.ec + "\t" + deepest.text;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return status == Status.ENZYME ? levels.toString() : status.toString();
+        }
+    }
+
+    private final String method;
+    private final String ROOTPATH;
+    private final String tempDir;
+    private final ECPredLibrary library;
+    private final ParallelExecutor executor;
+
+    /**
+     * Engine for method (blast, spmap, pepstats or weighted) on the library in
+     * libraryDir (the directory holding lib/EC and subclasses), with threads
+     * scheduler workers and as many core tokens for them and the external
+     * tools (capped by the container CPU quota), and its temporary files in
+     * tempDir
+     */
+    public ECPredEngine(String method, String libraryDir, String tempDir, int threads) {
+        if (!method.equals("blast") && !method.equals("spmap") && !method.equals("pepstats") && !method.equals("weighted")) {
+            throw new IllegalArgumentException("method argument must be one of the followings: blast, spmap, pepstats, weighted");
+        }
+        this.method = method;
+        this.ROOTPATH = Paths.get(libraryDir, "lib", "EC").toString();
+        if (!new File(ROOTPATH).isDirectory()) {
+            throw new IllegalArgumentException("No EC library in " + libraryDir);
+        }
+        this.tempDir = tempDir;
+        this.library = ECPredLibrary.get(ROOTPATH);
+        this.executor = new ParallelExecutor(CoreGovernor.budget(threads));
+    }
+
+    /**
+     * Load the models and files of every EC, so that the first requests pay
+     * no loading cost
+     */
+    public ECPredEngine warm() throws IOException {
+        library.warm(method);
+        return this;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    /**
+     * Predictions of sequences, in the order given. Sequences of 40 residues
+     * or less are not predicted (Status.TOO_SHORT).
+     */
+    public List<Result> predict(Iterable<String> sequences) throws IOException, InterruptedException {
+        return predict(sequences, null);
+    }
+
+    /**
+     * Predictions of sequences, in the order given; listener (may be null)
+     * also gets the index and result of each sequence as soon as its
+     * prediction is complete, once per sequence and possibly from several
+     * threads at once. All calls to listener are made before predict returns.
+     */
+    public List<Result> predict(Iterable<String> sequences, BiConsumer<Integer, Result> listener) throws IOException, InterruptedException {
+        List<String> cleaned = new ArrayList<>();
+        for (String sequence : sequences) {
+            cleaned.add(checkSequence(sequence));
+        }
+        if (cleaned.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long time = lastTime.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(now, last + 1));
+        String batchDir = tempDir + File.separator + "testResult" + File.separator + time;
+        String fastaFile = batchDir + File.separator + "input.fasta";
+        List<String> keys = new ArrayList<>();
+        List<String> idlist = new ArrayList<>();
+        Map<String, String> protSeqs = new HashMap<>();
+        try {
+            new File(batchDir).mkdirs();
+            try (PrintWriter writer = new PrintWriter(fastaFile, "UTF-8")) {
+                for (String sequence : cleaned) {
+                    writer.println(">Q" + proteinCount.incrementAndGet());
+                    writer.println(sequence);
+                }
+            }
+            // Protein keys as ECPred derives them from the headers
+            Iterator<String> fileKeys = ECPred.createFasta(fastaFile).iterator();
+            for (String sequence : cleaned) {
+                String key = fileKeys.next();
+                keys.add(key);
+                protSeqs.put(key, sequence);
+                if (sequence.length() > 40) {
+                    idlist.add(key);
+                }
+            }
+
+            ConcurrentHashMap<String, Vector<Vector<String>>> predictions = new ConcurrentHashMap<>();
+            Set<Integer> reported = ConcurrentHashMap.newKeySet();
+            Consumer<String> finished = null;
+            if (listener != null) {
+                Map<String, Integer> indexOf = new HashMap<>();
+                Set<String> predicted = new HashSet<>(idlist);
+                for (int i = 0; i < keys.size(); i++) {
+                    indexOf.put(keys.get(i), i);
+                    if (!predicted.contains(keys.get(i)) && reported.add(i)) {
+                        listener.accept(i, Result.of(false, null));
+                    }
+                }
+                finished = key -> {
+                    int i = indexOf.get(key);
+                    if (reported.add(i)) {
+                        listener.accept(i, Result.of(true, predictions.get(key)));
+                    }
+                };
+            }
+            final Consumer<String> onFinished = finished;
+            try {
+                executor.within(() -> {
+                    ECPred.predictProteins(new String[] {method, fastaFile}, ROOTPATH, fastaFile, time, method, tempDir,
+                        new Vector<>(ECPredLibrary.mainClasses()), idlist, protSeqs, null, predictions, new runEC(), executor.getParallelism(), onFinished);
+                    return null;
+                });
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (String key : keys) {
+                results.add(Result.of(idlist.contains(key), predictions.get(key)));
+            }
+            // Proteins that failed before they were reported
+            if (listener != null) {
+                for (int i = 0; i < results.size(); i++) {
+                    if (reported.add(i)) {
+                        listener.accept(i, results.get(i));
+                    }
+                }
+            }
+            return results;
+        } finally {
+            cleanUp(time, protSeqs);
+        }
+    }
+
+    /**
+     * Sequence without whitespace, checked as ECPred checks its input file
+     */
+    static String checkSequence(String sequence) {
+        String cleaned = sequence.replaceAll("\\s+", "");
+        Matcher m = SPECIAL_CHARACTER.matcher(cleaned);
+        if (m.find()) {
+            throw new IllegalArgumentException("Fasta sequence contains special character at position " + m.start() + ": "
+                + cleaned.charAt(m.start()) + " Your fasta: " + cleaned);
+        }
+        return cleaned;
+    }
+
+    /**
+     * Remove the result directories and cache entries of a finished call
+     */
+    private void cleanUp(long time, Map<String, String> protSeqs) {
+        for (Map.Entry<String, String> protein : protSeqs.entrySet()) {
+            BlastHitCache.evict(protein.getKey());
+            PepstatsFeatures.evict(protein.getValue());
+        }
+        String prefix = tempDir + File.separator + "testResult" + File.separator + time;
+        seq2vectPSSMtest.evictFastas(prefix);
+        PepstatsFeatures.evictFiles(prefix);
+        BlastScheduler.evictShards(prefix);
+        // The call's directory and the subclass directories of its proteins (<time>_<protein>)
+        File[] dirs = new File(tempDir, "testResult").listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.getName().equals(String.valueOf(time)) || dir.getName().startsWith(time + "_")) {
+                    ECPred.deleteDirectory(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the engine's scheduler; running calls finish first
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
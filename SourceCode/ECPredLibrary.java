@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The small per-EC files of an EC library (thresholds, child ECs, method
+ * weights, training ids and training predictions), read once and kept in
+ * memory. warm() also loads the SVM models, SVM ranges, SPMAP profiles and
+ * BLAST sequence libraries of every EC, so that a long-running process pays
+ * no loading cost on its first proteins.
+ */
+public class ECPredLibrary {
+
+    private static final Map<String, ECPredLibrary> libraries = new ConcurrentHashMap<>();
+
+    private static final String[] MAIN_CLASSES = {"1.-.-.-", "2.-.-.-", "3.-.-.-", "4.-.-.-", "5.-.-.-", "6.-.-.-"};
+
+    private final String ROOTPATH;
+    private final String subclassDir;
+    private volatile HashMap<String, Double> thresholds;
+    private final Map<String, List<String>> children = new ConcurrentHashMap<>();
+    private final Map<String, double[]> weights = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> ids = new ConcurrentHashMap<>();
+    private final Map<String, double[]> references = new ConcurrentHashMap<>();
+
+    private ECPredLibrary(String ROOTPATH) {
+        this.ROOTPATH = ROOTPATH;
+        this.subclassDir = ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/subclasses/";
+    }
+
+    /**
+     * Library of ROOTPATH (libraryDir/lib/EC), shared by all callers
+     */
+    public static ECPredLibrary get(String ROOTPATH) {
+        return libraries.computeIfAbsent(ROOTPATH, ECPredLibrary::new);
+    }
+
+    public String rootPath() {
+        return ROOTPATH;
+    }
+
+    public static List<String> mainClasses() {
+        return Collections.unmodifiableList(Arrays.asList(MAIN_CLASSES));
+    }
+
+    /**
+     * Decision threshold of every EC (subclasses/thresholds.txt)
+     */
+    public HashMap<String, Double> thresholds() throws IOException {
+        HashMap<String, Double> loaded = thresholds;
+        if (loaded == null) {
+            loaded = new runEC().loadThresholds(ROOTPATH);
+            thresholds = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * Child ECs of an EC (subclasses/<ecnum>.txt), empty for a leaf
+     */
+    public List<String> children(String ecnum) throws IOException {
+        List<String> list = children.get(ecnum);
+        if (list == null) {
+            list = Collections.unmodifiableList(Files.readAllLines(Paths.get(subclassDir + ecnum + ".txt")));
+            children.putIfAbsent(ecnum, list);
+        }
+        return list;
+    }
+
+    /**
+     * SPMAP, BLAST and PEPSTATS weights of an EC (weights.txt)
+     */
+    public double[] weights(String ecnum) throws IOException {
+        double[] w = weights.get(ecnum);
+        if (w == null) {
+            List<String> lines = Files.readAllLines(Paths.get(ROOTPATH + File.separator + ecnum + File.separator + "weights.txt"));
+            w = new double[] {Double.parseDouble(lines.get(0)), Double.parseDouble(lines.get(1)), Double.parseDouble(lines.get(2))};
+            weights.putIfAbsent(ecnum, w);
+        }
+        return w;
+    }
+
+    /**
+     * Positive training ids of an EC (positive.ids)
+     */
+    public List<String> positiveIds(String ecnum) throws IOException {
+        return ids(ecnum, "positive.ids");
+    }
+
+    /**
+     * Negative training ids of an EC (negative.ids)
+     */
+    public List<String> negativeIds(String ecnum) throws IOException {
+        return ids(ecnum, "negative.ids");
+    }
+
+    private List<String> ids(String ecnum, String file) throws IOException {
+        String key = ecnum + File.separator + file;
+        List<String> list = ids.get(key);
+        if (list == null) {
+            list = Files.readAllLines(Paths.get(ROOTPATH + File.separator + key));
+            ids.putIfAbsent(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Confidence of a raw prediction of one method for one EC, against the
+     * training predictions of that method (ppreds.txt, npreds.txt)
+     */
+    public double confidence(String ecnum, String method, double prediction) throws IOException {
+        String path = ROOTPATH + File.separator + ecnum + File.separator + method + File.separator;
+        return utils.confidence(reference(path + "ppreds.txt"), reference(path + "npreds.txt"), prediction);
+    }
+
+    private double[] reference(String file) throws IOException {
+        double[] values = references.get(file);
+        if (values == null) {
+            values = utils.readValues(file);
+            references.putIfAbsent(file, values);
+        }
+        return values;
+    }
+
+    public String modelFile(String ecnum, String method) {
+        return ROOTPATH + File.separator + ecnum + File.separator + method + File.separator + "model.svm";
+    }
+
+    public String rangeFile(String ecnum) {
+        return ROOTPATH + File.separator + ecnum + File.separator + "pepstats" + File.separator + "rangefile";
+    }
+
+    /**
+     * All ECs of the hierarchy, main classes first
+     */
+    public List<String> allECs() throws IOException {
+        Set<String> all = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>(mainClasses());
+        while (!queue.isEmpty()) {
+            String ecnum = queue.poll();
+            if (all.add(ecnum) && Files.exists(Paths.get(subclassDir + ecnum + ".txt"))) {
+                queue.addAll(children(ecnum));
+            }
+        }
+        return new ArrayList<>(all);
+    }
+
+    /**
+     * Load the files and models every prediction with method needs, for all
+     * ECs; returns the number of ECs
+     */
+    public int warm(String method) throws IOException {
+        long start = System.currentTimeMillis();
+        thresholds();
+        List<String> all = allECs();
+        boolean weighted = method.equals("weighted");
+        for (String ecnum : all) {
+            if (!Files.isDirectory(Paths.get(ROOTPATH, ecnum))) {
+                continue;
+            }
+            if (weighted) {
+                weights(ecnum);
+            }
+            if (weighted || method.equals("spmap")) {
+                seq2vectPSSMtest.preloadProfile(ROOTPATH, ecnum, predictBatchSPMAP.SUBSEQLEN);
+                preloadModel(ecnum, "spmap");
+            }
+            if (weighted || method.equals("pepstats")) {
+                if (Files.exists(Paths.get(rangeFile(ecnum)))) {
+                    SvmScaleRange.get(rangeFile(ecnum));
+                }
+                preloadModel(ecnum, "pepstats");
+            }
+            if (weighted || method.equals("blast")) {
+                positiveIds(ecnum);
+                negativeIds(ecnum);
+                confidenceFiles(ecnum, "blast");
+                if (SequenceLibrary.exists(ROOTPATH, ecnum)) {
+                    SequenceLibrary.get(ROOTPATH, ecnum);
+                }
+            }
+        }
+        System.out.println("[TIMER] Library warm-up: " + all.size() + " ECs in " + (System.currentTimeMillis() - start) + " ms");
+        return all.size();
+    }
+
+    private void preloadModel(String ecnum, String method) throws IOException {
+        Path model = Paths.get(modelFile(ecnum, method));
+        if (Files.exists(model)) {
+            SVMLightClassifier.preload(model.toString());
+            confidenceFiles(ecnum, method);
+        }
+    }
+
+    private void confidenceFiles(String ecnum, String method) throws IOException {
+        String path = ROOTPATH + File.separator + ecnum + File.separator + method + File.separator;
+        reference(path + "ppreds.txt");
+        reference(path + "npreds.txt");
+    }
+}
@@ -0,0 +1,219 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prediction server: java -jar ECPred.jar server method libraryDir tempDir [threads]
+ * The EC library is loaded once, then FASTA payloads POSTed to
+ * http://127.0.0.1:<ecpred.server.port>/predict are answered in the TSV layout
+ * of the output file. Requests arriving together are predicted as one batch
+ * (up to ecpred.server.batchSize proteins, or whatever arrived within
+ * ecpred.server.batchWindowMs of the first one), so each EC model is applied
+ * to the proteins of many requests in one pass.
+ */
+public class ECPredServer {
+
+    private static final int PORT = ECPredConfig.getInt("server.port", 8080);
+    private static final int BATCH_SIZE = Math.max(1, ECPredConfig.getInt("server.batchSize", 64));
+    private static final int BATCH_WINDOW_MS = Math.max(0, ECPredConfig.getInt("server.batchWindowMs", 50));
+
+    /**
+     * One POSTed FASTA payload waiting for its predictions
+     */
+    static class Request {
+        final List<String> headers;
+        final List<String> sequences;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        Request(List<String> headers, List<String> sequences) {
+            this.headers = headers;
+            this.sequences = sequences;
+        }
+    }
+
+    private final ECPredEngine engine;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    public ECPredServer(ECPredEngine engine) {
+        this.engine = engine;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("Sample run: java -jar ECPred.jar server method libraryDir tempDir [threads]");
+            System.out.println("method argument can be one of the followings: blast, spmap, pepstats, weighted");
+            return;
+        }
+        String method = args[0];
+        if (!method.equals("blast") && !method.equals("spmap") && !method.equals("pepstats") && !method.equals("weighted")) {
+            System.out.println("method argument must be one of the followings: blast, spmap, pepstats, weighted");
+            return;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (args.length > 3) {
+            try {
+                cores = Math.max(1, Integer.parseInt(args[3]));
+            } catch (NumberFormatException e) {
+                // Keep all processors
+            }
+        }
+        cores = CoreGovernor.budget(cores);
+
+        try (ECPredEngine engine = new ECPredEngine(method, args[1], args[2], cores)) {
+            new ECPredServer(engine.warm()).serve();
+        }
+    }
+
+    /**
+     * Listen on the loopback interface and predict batches until the process ends
+     */
+    public void serve() throws IOException, InterruptedException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+        server.createContext("/predict", this::handlePredict);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok\n"));
+        // Handler threads only wait for their batch; prediction runs on the scheduler
+        AtomicInteger handlerCount = new AtomicInteger();
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ECPredHttp-" + handlerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        System.out.println("ECPred server (" + engine.method() + ") listening on http://" + server.getAddress().getHostString() + ":"
+            + server.getAddress().getPort() + "/predict");
+
+        while (true) {
+            predictBatch(nextBatch());
+        }
+    }
+
+    private void handlePredict(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "POST a FASTA payload to /predict\n");
+                return;
+            }
+            Request request = parse(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            queue.add(request);
+            respond(exchange, 200, request.response.get());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (ExecutionException e) {
+            respond(exchange, 500, "Prediction failed: " + e.getCause().getMessage() + "\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Server is shutting down\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", status == 200 && body.startsWith(ECPred.RESULT_HEADER)
+            ? "text/tab-separated-values; charset=utf-8" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Headers and sequences of a FASTA payload, checked as ECPred checks its
+     * input file
+     */
+    static Request parse(String fasta) {
+        List<String> headers = new ArrayList<>();
+        List<String> sequences = new ArrayList<>();
+        StringBuilder sequence = null;
+        for (String line : fasta.split("\r?\n")) {
+            if (line.startsWith(">")) {
+                if (sequence != null) {
+                    sequences.add(sequence.toString());
+                }
+                headers.add(line);
+                sequence = new StringBuilder();
+            } else if (sequence != null) {
+                sequence.append(line);
+            } else if (!line.trim().isEmpty()) {
+                throw new IllegalArgumentException("Wrong input! Sequences should start with \">\" character.");
+            }
+        }
+        if (sequence != null) {
+            sequences.add(sequence.toString());
+        }
+        if (headers.isEmpty()) {
+            throw new IllegalArgumentException("No sequences in the request");
+        }
+        for (int i = 0; i < sequences.size(); i++) {
+            sequences.set(i, ECPredEngine.checkSequence(sequences.get(i)));
+        }
+        return new Request(headers, sequences);
+    }
+
+    /**
+     * Requests of the next batch: the first waiting request, then whatever
+     * arrives within the batch window, up to the batch size in proteins
+     */
+    private List<Request> nextBatch() throws InterruptedException {
+        List<Request> batch = new ArrayList<>();
+        Request first = queue.take();
+        batch.add(first);
+        int proteins = first.sequences.size();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+        while (proteins < BATCH_SIZE) {
+            long wait = deadline - System.nanoTime();
+            Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            proteins += next.sequences.size();
+        }
+        return batch;
+    }
+
+    /**
+     * Predict the proteins of all requests of a batch in one engine call and
+     * answer each request with its own lines
+     */
+    private void predictBatch(List<Request> batch) {
+        long t0 = System.currentTimeMillis();
+        List<String> sequences = new ArrayList<>();
+        for (Request request : batch) {
+            sequences.addAll(request.sequences);
+        }
+        try {
+            List<ECPredEngine.Result> results = engine.predict(sequences);
+            int next = 0;
+            for (Request request : batch) {
+                StringBuilder sb = new StringBuilder(ECPred.RESULT_HEADER).append('\n');
+                for (String header : request.headers) {
+                    sb.append(ECPred.resultLine(header, results.get(next++))).append('\n');
+                }
+                request.response.complete(sb.toString());
+            }
+            System.out.println("[TIMER] Batch of " + batch.size() + " requests, " + sequences.size() + " proteins: "
+                + (System.currentTimeMillis() - t0) + " ms");
+        } catch (Exception e) {
+            System.err.println("Error predicting a batch of " + batch.size() + " requests: " + e.getMessage());
+            e.printStackTrace();
+            for (Request request : batch) {
+                request.response.completeExceptionally(e);
+            }
+        }
+    }
+}
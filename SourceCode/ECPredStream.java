@@ -0,0 +1,169 @@
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming mode: java -jar ECPred.jar method - libraryDir tempDir [outputFile] [threads]
+ * FASTA records are read from stdin as they arrive, and the output line of
+ * each protein is written (to stdout, or to outputFile unless it is "-") as
+ * soon as its hierarchical prediction is done, so ECPred can sit in a Unix
+ * pipe. A record is complete once the next header or the end of the input
+ * is read. Every record gets a line, too short ones included. Lines come in
+ * completion order, or in input order with -Decpred.stream.ordered=true.
+ * At most ecpred.stream.window proteins are read ahead of the last line
+ * written, which also bounds the lines held back for ordering. Progress and
+ * timing messages go to stderr.
+ */
+public class ECPredStream {
+
+    private static final boolean ORDERED = ECPredConfig.getBoolean("stream.ordered", false);
+    private static final int WINDOW = Math.max(1, ECPredConfig.getInt("stream.window", 64));
+
+    private final ECPredEngine engine;
+    private final PrintWriter out;
+    private final Semaphore window = new Semaphore(WINDOW);
+    // Lines finished ahead of an earlier protein, by input index (ordered mode)
+    private final Map<Integer, String> held = new HashMap<>();
+    private int nextLine;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private ECPredStream(ECPredEngine engine, PrintWriter out) {
+        this.engine = engine;
+        this.out = out;
+    }
+
+    /**
+     * Predict the records of stdin; returns false if the input was invalid or
+     * some protein could not be predicted
+     */
+    public static boolean run(String[] args) throws IOException, InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (args.length > 5) {
+            try {
+                cores = Math.max(1, Integer.parseInt(args[5]));
+            } catch (NumberFormatException e) {
+                // Keep all processors
+            }
+        }
+        cores = CoreGovernor.budget(cores);
+
+        // Output lines are the only thing written to the data stream
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        PrintWriter out = args.length > 4 && !args[4].equals("-")
+            ? new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[4]), StandardCharsets.UTF_8))
+            : new PrintWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8));
+        try (ECPredEngine engine = new ECPredEngine(args[0], args[2], args[3], cores)) {
+            engine.warm();
+            out.println(ECPred.RESULT_HEADER);
+            out.flush();
+            return new ECPredStream(engine, out).predict(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), cores);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read records and predict up to cores proteins at once until stdin ends
+     */
+    private boolean predict(BufferedReader in, int cores) throws IOException, InterruptedException {
+        ExecutorService proteins = Executors.newFixedThreadPool(cores, r -> {
+            Thread thread = new Thread(r, "ECPredStream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long t0 = System.currentTimeMillis();
+        int count = 0;
+        boolean valid = true;
+        try {
+            String header = null;
+            StringBuilder sequence = new StringBuilder();
+            String line;
+            while (valid) {
+                line = in.readLine();
+                if (line == null || line.startsWith(">")) {
+                    if (header != null) {
+                        valid = submit(proteins, count, header, sequence.toString());
+                        if (valid) {
+                            count++;
+                        }
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                    header = line;
+                    sequence.setLength(0);
+                } else if (header != null) {
+                    sequence.append(line);
+                } else if (!line.trim().isEmpty()) {
+                    System.err.println("Wrong input! Sequences should start with \">\" character.");
+                    valid = false;
+                }
+            }
+        } finally {
+            proteins.shutdown();
+            proteins.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        System.err.println("[TIMER] Streamed " + count + " proteins: " + (System.currentTimeMillis() - t0) + " ms");
+        return valid && failures.get() == 0;
+    }
+
+    /**
+     * Start the prediction of record index once the window has room; false
+     * if its sequence is invalid
+     */
+    private boolean submit(ExecutorService proteins, int index, String header, String sequence) throws InterruptedException {
+        List<String> sequences = new ArrayList<>();
+        try {
+            sequences.add(ECPredEngine.checkSequence(sequence));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        window.acquire();
+        proteins.execute(() -> {
+            String line;
+            try {
+                line = ECPred.resultLine(header, engine.predict(sequences).get(0));
+            } catch (Exception e) {
+                System.err.println("Error predicting protein " + header + ": " + e.getMessage());
+                failures.incrementAndGet();
+                line = ECPred.resultLine(header, ECPredEngine.Result.of(true, null));
+            }
+            write(index, line);
+        });
+        return true;
+    }
+
+    /**
+     * Write the line of protein index, or hold it until the lines before it
+     * are written (ordered mode)
+     */
+    private synchronized void write(int index, String line) {
+        if (!ORDERED) {
+            out.println(line);
+            window.release();
+        } else {
+            held.put(index, line);
+            while (held.containsKey(nextLine)) {
+                out.println(held.remove(nextLine++));
+                window.release();
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Starts and waits for the external tools (blastp, pepstats, blastdbcmd).
+ * At most ecpred.maxProcesses tools run at once. A scheduler worker waiting
+ * for a tool, or for a free process slot, is a managed blocker: the scheduler
+ * starts a spare worker meanwhile, so in-JVM work (SPMAP, SVM, calibration)
+ * keeps every core busy while the tools run.
+ */
+public class ExternalProcesses {
+
+    private static final int MAX_PROCESSES = Math.max(1,
+        ECPredConfig.getInt("maxProcesses", Runtime.getRuntime().availableProcessors()));
+
+    private static final Semaphore slots = new Semaphore(MAX_PROCESSES, true);
+
+    /**
+     * Largest number of tools running at once, i.e. of scheduler workers
+     * waiting for one
+     */
+    static int maxProcesses() {
+        return MAX_PROCESSES;
+    }
+
+    /**
+     * Start a process once a slot is free; the slot is released when it exits
+     */
+    public static Process start(ProcessBuilder pb) throws IOException, InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean acquired;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!acquired) {
+                    slots.acquire();
+                    acquired = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                if (!acquired) {
+                    acquired = slots.tryAcquire();
+                }
+                return acquired;
+            }
+        });
+        Process process;
+        try {
+            process = pb.start();
+        } catch (IOException | RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        process.onExit().thenRun(slots::release);
+        return process;
+    }
+
+    /**
+     * Wait for a process and return its exit value
+     */
+    public static int waitFor(Process process) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                process.waitFor();
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return !process.isAlive();
+            }
+        });
+        return process.exitValue();
+    }
+}
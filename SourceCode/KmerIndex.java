@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk k-mer inverted index over the EC training sequences.
+ * For every k-mer it stores the (ordinal) list of training sequences that
+ * contain it. The file is memory-mapped at runtime and gives each query a
+ * shortlist of candidate neighbours within an EC library, ranked by shared
+ * k-mer count.
+ *
+ * File layout (big-endian):
+ * magic, version, k, sequence count, id block length, id block ('\n'-separated),
+ * posting offsets (long[20^k + 1]), postings (int[]).
+ */
+public class KmerIndex {
+
+    public static final String INDEX_FILE = "kmer.idx";
+
+    private static final int MAGIC = 0x4B4D4552; // "KMER"
+    private static final int VERSION = 1;
+    private static final int DEFAULT_K = 4;
+    // 20^k offsets of 8 bytes must fit one buffer
+    private static final int MAX_K = 6;
+    private static final int AA_COUNT = 20;
+    private static final String AA_ORDER = "ARNDCQEGHILKMFPSTWYV";
+    private static final int[] AA_INDEX = new int[128];
+
+    // Mapped chunks overlap by 8 bytes so no int or long straddles two chunks
+    private static final long CHUNK = 1L << 30;
+
+    // Open indexes by path; a missing index is not cached
+    private static final Map<String, KmerIndex> indexCache = new ConcurrentHashMap<>();
+
+    private final int k;
+    private final int kmerCount;
+    private final String[] ids;
+    private final MappedByteBuffer[] chunks;
+    private final long offsetsStart;
+    private final long postingsStart;
+
+    // Per-thread shared-kmer counters, reset after each query
+    private final ThreadLocal<int[]> counters;
+
+    // Position in each EC library of every indexed sequence, -1 if it is not a member
+    private final Map<SequenceLibrary, int[]> libraryPositions = new ConcurrentHashMap<>();
+
+    static {
+        Arrays.fill(AA_INDEX, -1);
+        for (int i = 0; i < AA_ORDER.length(); i++) {
+            AA_INDEX[AA_ORDER.charAt(i)] = i;
+            AA_INDEX[Character.toLowerCase(AA_ORDER.charAt(i))] = i;
+        }
+    }
+
+    private KmerIndex(String path) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            int n = (int) ((size + CHUNK - 1) / CHUNK);
+            chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = i * CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK + 8, size - start));
+            }
+        }
+        if (readInt(0) != MAGIC || readInt(4) != VERSION) {
+            throw new IOException("Not a k-mer index: " + path);
+        }
+        k = readInt(8);
+        if (k < 1 || k > MAX_K) {
+            throw new IOException("Corrupt k-mer index header (k=" + k + "): " + path);
+        }
+        int sequenceCount = readInt(12);
+        int idBytes = readInt(16);
+        byte[] idBlock = new byte[idBytes];
+        for (int i = 0; i < idBytes; i++) {
+            idBlock[i] = chunks[(int) ((20 + i) / CHUNK)].get((int) ((20 + i) % CHUNK));
+        }
+        ids = idBytes == 0 ? new String[0] : new String(idBlock, StandardCharsets.UTF_8).split("\n", -1);
+        if (ids.length != sequenceCount) {
+            throw new IOException("Corrupt k-mer index id table: " + path);
+        }
+        kmerCount = pow(AA_COUNT, k);
+        offsetsStart = 20L + idBytes;
+        postingsStart = offsetsStart + 8L * (kmerCount + 1);
+        counters = ThreadLocal.withInitial(() -> new int[ids.length]);
+    }
+
+    /**
+     * Open the index of a library, or return null if it has not been built
+     */
+    public static KmerIndex open(String ROOTPATH) throws IOException {
+        String path = ROOTPATH + File.separator + INDEX_FILE;
+        KmerIndex index = indexCache.get(path);
+        if (index == null) {
+            if (!new File(path).exists()) {
+                return null;
+            }
+            index = new KmerIndex(path);
+            indexCache.putIfAbsent(path, index);
+            index = indexCache.get(path);
+        }
+        return index;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    private int readInt(long pos) {
+        return chunks[(int) (pos / CHUNK)].getInt((int) (pos % CHUNK));
+    }
+
+    private long readLong(long pos) {
+        return chunks[(int) (pos / CHUNK)].getLong((int) (pos % CHUNK));
+    }
+
+    /**
+     * Positions in library of up to limit of its sequences sharing the most
+     * distinct k-mers with the query, in decreasing order of shared count.
+     * Only members of library are ranked, so a small EC gets its own
+     * shortlist rather than its share of the shortlist of the whole index.
+     */
+    public int[] shortlist(String sequence, int limit, SequenceLibrary library) {
+        int[] positions = libraryPositions.computeIfAbsent(library, lib -> {
+            int[] map = new int[ids.length];
+            for (int ordinal = 0; ordinal < ids.length; ordinal++) {
+                map[ordinal] = lib.indexOf(ids[ordinal]);
+            }
+            return map;
+        });
+
+        int[] counts = counters.get();
+        List<Integer> touched = new ArrayList<>();
+        for (int kmer : distinctKmers(sequence, k)) {
+            long from = readLong(offsetsStart + 8L * kmer);
+            long to = readLong(offsetsStart + 8L * (kmer + 1));
+            for (long p = from; p < to; p++) {
+                int ordinal = readInt(postingsStart + 4L * p);
+                if (positions[ordinal] >= 0 && counts[ordinal]++ == 0) {
+                    touched.add(ordinal);
+                }
+            }
+        }
+
+        touched.sort((a, b) -> Integer.compare(counts[b], counts[a]));
+        int[] result = new int[Math.min(limit, touched.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions[touched.get(i)];
+        }
+        for (int ordinal : touched) {
+            counts[ordinal] = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Distinct k-mer codes of a sequence; windows with non-standard residues are skipped
+     */
+    static int[] distinctKmers(String sequence, int k) {
+        Set<Integer> kmers = new LinkedHashSet<>();
+        int code = 0;
+        int valid = 0;
+        int modulus = pow(AA_COUNT, k - 1);
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            int aa = c < 128 ? AA_INDEX[c] : -1;
+            if (aa < 0) {
+                valid = 0;
+                code = 0;
+                continue;
+            }
+            code = (code % modulus) * AA_COUNT + aa;
+            if (++valid >= k) {
+                kmers.add(code);
+            }
+        }
+        int[] result = new int[kmers.size()];
+        int i = 0;
+        for (int kmer : kmers) {
+            result[i++] = kmer;
+        }
+        return result;
+    }
+
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * Build the index over all sequences referenced by the positive.ids and
+     * negative.ids files of the library, taking the sequences from the EC
+     * FASTA exports (see SequenceLibrary). k must be 1 to MAX_K.
+     */
+    public static void build(String ROOTPATH, int k) throws IOException {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("k must be between 1 and " + MAX_K + ", not " + k);
+        }
+        File[] ecDirs = new File(ROOTPATH).listFiles(File::isDirectory);
+        if (ecDirs == null) {
+            throw new IOException("No EC directories found under " + ROOTPATH);
+        }
+
+        LinkedHashMap<String, String> sequences = new LinkedHashMap<>();
+        for (File ecDir : ecDirs) {
+            String ecnum = ecDir.getName();
+            if (!SequenceLibrary.exists(ROOTPATH, ecnum)) {
+                continue;
+            }
+            Set<String> referenced = new LinkedHashSet<>();
+            for (String idFile : new String[] {"positive.ids", "negative.ids"}) {
+                File f = new File(ecDir, idFile);
+                if (f.exists()) {
+                    for (String id : Files.readAllLines(f.toPath())) {
+                        referenced.add(id.trim());
+                    }
+                }
+            }
+            for (Map.Entry<String, String> entry : SequenceLibrary.readFasta(SequenceLibrary.fastaPath(ROOTPATH, ecnum)).entrySet()) {
+                if (referenced.contains(entry.getKey())) {
+                    sequences.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        int kmerCount = pow(AA_COUNT, k);
+        String[] ids = sequences.keySet().toArray(new String[0]);
+        long[] counts = new long[kmerCount];
+        for (String seq : sequences.values()) {
+            for (int kmer : distinctKmers(seq, k)) {
+                counts[kmer]++;
+            }
+        }
+        long[] offsets = new long[kmerCount + 1];
+        for (int i = 0; i < kmerCount; i++) {
+            offsets[i + 1] = offsets[i] + counts[i];
+        }
+
+        byte[] idBlock = String.join("\n", ids).getBytes(StandardCharsets.UTF_8);
+        long offsetsStart = 20L + idBlock.length;
+        long postingsStart = offsetsStart + 8L * (kmerCount + 1);
+        long size = postingsStart + 4L * offsets[kmerCount];
+
+        String path = ROOTPATH + File.separator + INDEX_FILE;
+        String tmpPath = path + ".tmp";
+        try (RandomAccessFile raf = new RandomAccessFile(tmpPath, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(20 + idBlock.length);
+            header.putInt(MAGIC).putInt(VERSION).putInt(k).putInt(ids.length).putInt(idBlock.length).put(idBlock);
+            header.flip();
+            channel.write(header, 0);
+
+            ByteBuffer offsetBuffer = ByteBuffer.allocate(8 * (kmerCount + 1));
+            for (long offset : offsets) {
+                offsetBuffer.putLong(offset);
+            }
+            offsetBuffer.flip();
+            channel.write(offsetBuffer, offsetsStart);
+
+            raf.setLength(size);
+            MappedByteBuffer[] out = new MappedByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+            for (int i = 0; i < out.length; i++) {
+                long start = i * CHUNK;
+                out[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK + 8, size - start));
+            }
+            long[] cursor = Arrays.copyOf(offsets, kmerCount);
+            for (int ordinal = 0; ordinal < ids.length; ordinal++) {
+                for (int kmer : distinctKmers(sequences.get(ids[ordinal]), k)) {
+                    long pos = postingsStart + 4L * cursor[kmer]++;
+                    out[(int) (pos / CHUNK)].putInt((int) (pos % CHUNK), ordinal);
+                }
+            }
+            for (MappedByteBuffer buffer : out) {
+                buffer.force();
+            }
+        }
+        Files.move(Paths.get(tmpPath), Paths.get(path), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Indexed " + ids.length + " training sequences (k=" + k + ", " + offsets[kmerCount] + " postings) into " + path);
+    }
+
+    /**
+     * Usage: KmerIndex libraryDir [k]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Sample run: java -cp ECPred.jar KmerIndex libraryDir [k]");
+            return;
+        }
+        int k = DEFAULT_K;
+        if (args.length > 1) {
+            try {
+                k = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                k = 0;
+            }
+            if (k < 1 || k > MAX_K) {
+                System.out.println("k must be a number between 1 and " + MAX_K + ", not " + args[1]);
+                System.out.println("Sample run: java -cp ECPred.jar KmerIndex libraryDir [k]");
+                return;
+            }
+        }
+        build(Paths.get(args[0], "lib", "EC").toString(), k);
+    }
+}
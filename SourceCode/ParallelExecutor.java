@@ -1,179 +1,350 @@
 import java.util.concurrent.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.function.Supplier;
 
 /**
  * Utility class for managing parallel execution in ECPred
- * Provides thread pools for different levels of parallelization:
- * - Protein level
+ * All levels of parallelization run as tasks of one work-stealing scheduler
+ * sized by the core budget (-cpu):
+ * - Protein level (subclass descent, one chained task per level)
  * - Method level (BLAST, SPMAP, PEPSTATS)
  * - EC class level
+ * - Data level (blocks of proteins or windows inside a single EC task)
+ * A task waiting for its subtasks joins them: the waiting worker runs queued
+ * tasks instead of blocking, so the levels share the cores without starving
+ * each other. Tasks run on CoreGovernor tokens, which they share with the
+ * external tools.
+ * The command line uses the singleton; every ECPredEngine has an executor of
+ * its own, and getInstance() returns the executor of the running task. The
+ * core tokens and the tuning knobs (block size, EC and protein concurrency,
+ * blastp threads) belong to the executor, so engines in one JVM do not share
+ * them.
  */
 public class ParallelExecutor {
     
     // Singleton instance
     private static ParallelExecutor instance;
     
-    // Thread pools for different levels
-    private final ExecutorService proteinLevelExecutor;
-    private final ExecutorService methodLevelExecutor;
-    private ExecutorService ecClassLevelExecutor;
+    // Executor of the current thread outside of any scheduler (see within)
+    private static final ThreadLocal<ParallelExecutor> bound = new ThreadLocal<>();
     
-    // Configuration
+    // Scheduler shared by all levels
+    private final ForkJoinPool scheduler;
+    // Core tokens of the scheduler's tasks and the tools they start
+    private final CoreGovernor governor;
+    
+    // Budget of the singleton
     private static int userCpuCount = Runtime.getRuntime().availableProcessors();
-    private static int proteinLevelThreads = userCpuCount;
-    private static final int METHOD_LEVEL_THREADS = 3; // BLAST, SPMAP, PEPSTATS
-    private static int ecClassLevelThreads = userCpuCount;
+    // Proteins per block when a single EC task splits its work over the scheduler
+    private volatile int dataBlockSize = ECPredConfig.getInt("blockSize", 32);
+    // EC tasks running at once per call; 0 runs all of them
+    private volatile int ecConcurrency = ECPredConfig.getInt("ecConcurrency", 0);
+    // Subclass walks running at once; 0 runs all of them
+    private volatile int proteinConcurrency = ECPredConfig.getInt("proteinConcurrency", 0);
+    // Largest -num_threads per blastp process; 0 lets the plan decide
+    private volatile int blastThreads = ECPredConfig.getInt("blast.threads", 0);
+    
+    /**
+     * Worker thread of a scheduler, which knows the executor it belongs to
+     */
+    private static class Worker extends ForkJoinWorkerThread {
+        final ParallelExecutor owner;
+        
+        Worker(ForkJoinPool pool, ParallelExecutor owner) {
+            super(pool);
+            this.owner = owner;
+        }
+    }
     
     private ParallelExecutor() {
-        // Set thread counts from current userCpuCount
-        proteinLevelThreads = userCpuCount;
-        ecClassLevelThreads = userCpuCount;
-
-        // Create thread pools with appropriate sizes
-        this.proteinLevelExecutor = Executors.newFixedThreadPool(
-            proteinLevelThreads,
-            new ThreadFactory() {
-                private int counter = 0;
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread t = new Thread(r, "ProteinWorker-" + counter++);
-                    t.setDaemon(false);
-                    return t;
-                }
-            }
-        );
-
-        this.methodLevelExecutor = Executors.newFixedThreadPool(
-            METHOD_LEVEL_THREADS,
-            new ThreadFactory() {
-                private int counter = 0;
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread t = new Thread(r, "MethodWorker-" + counter++);
-                    t.setDaemon(false);
-                    return t;
-                }
-            }
-        );
-
-        this.ecClassLevelExecutor = Executors.newFixedThreadPool(
-            ecClassLevelThreads,
-            new ThreadFactory() {
-                private int counter = 0;
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread t = new Thread(r, "ECClassWorker-" + counter++);
-                    t.setDaemon(false);
-                    return t;
-                }
-            }
+        this(userCpuCount);
+    }
+    
+    /**
+     * Executor with a scheduler and a core budget of its own, e.g. for an
+     * ECPredEngine
+     */
+    ParallelExecutor(int parallelism) {
+        int workers = Math.max(1, parallelism);
+        this.governor = new CoreGovernor(workers);
+        // Spare workers only stand in for workers waiting on an external tool;
+        // past that bound a blocked worker is simply not replaced
+        this.scheduler = new ForkJoinPool(
+            workers,
+            pool -> {
+                Worker t = new Worker(pool, this);
+                t.setName("ECPredWorker-" + t.getPoolIndex());
+                return t;
+            },
+            null,
+            false,
+            0,
+            workers + ExternalProcesses.maxProcesses(),
+            1,
+            pool -> true,
+            60,
+            TimeUnit.SECONDS
         );
     }
     
     /**
-     * Get singleton instance
+     * Executor of the calling task: the one whose scheduler runs the current
+     * thread, the one bound to it by within, or the singleton
      */
-    public static synchronized ParallelExecutor getInstance() {
+    public static ParallelExecutor getInstance() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            return ((Worker) thread).owner;
+        }
+        ParallelExecutor executor = bound.get();
+        return executor != null ? executor : getDefault();
+    }
+    
+    private static synchronized ParallelExecutor getDefault() {
         if (instance == null) {
             instance = new ParallelExecutor();
         }
         return instance;
     }
     
+    /**
+     * Run work on the calling thread with this executor as getInstance(), so
+     * all the tasks it starts run on this executor's scheduler
+     */
+    public <T> T within(Callable<T> work) throws Exception {
+        ParallelExecutor previous = bound.get();
+        bound.set(this);
+        try {
+            return work.call();
+        } finally {
+            if (previous != null) {
+                bound.set(previous);
+            } else {
+                bound.remove();
+            }
+        }
+    }
+    
+    CoreGovernor governor() {
+        return governor;
+    }
+    
+    /**
+     * Number of workers of the scheduler
+     */
+    public int getParallelism() {
+        return scheduler.getParallelism();
+    }
+    
     /**
      * Set the number of threads for EC class level execution
-     * Safely recreates the thread pool with the specified thread count.
+     * EC tasks run on the shared scheduler, which is sized by setUserCpuCount;
+     * kept for compatibility.
      */
     public void setEcClassLevelThreads(int newThreads) {
         if (newThreads < 1) {
             throw new IllegalArgumentException("Thread count must be at least 1");
         }
-        
-        ecClassLevelThreads = newThreads;
-        
-        // Shutdown current executor
-        ecClassLevelExecutor.shutdown();
-        try {
-            if (!ecClassLevelExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-                ecClassLevelExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            ecClassLevelExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
-        
-        // Create new executor
-        ecClassLevelExecutor = Executors.newFixedThreadPool(
-            ecClassLevelThreads,
-            new ThreadFactory() {
-                private int counter = 0;
-                @Override
-                public Thread newThread(Runnable r) {
-                    Thread t = new Thread(r, "ECClassWorker-" + counter++);
-                    t.setDaemon(false);
-                    return t;
-                }
-            }
-        );
     }
     
     /**
      * Execute tasks in parallel at protein level
      */
     public <T> List<T> executeProteinLevel(List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
-        List<Future<T>> futures = proteinLevelExecutor.invokeAll(tasks);
-        List<T> results = new ArrayList<>();
-        for (Future<T> future : futures) {
-            results.add(future.get());
-        }
-        return results;
+        return executeAll(tasks);
     }
     
     /**
      * Execute tasks in parallel at method level (BLAST, SPMAP, PEPSTATS)
      */
     public <T> List<T> executeMethodLevel(List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
-        List<Future<T>> futures = methodLevelExecutor.invokeAll(tasks);
-        List<T> results = new ArrayList<>();
-        for (Future<T> future : futures) {
-            results.add(future.get());
-        }
-        return results;
+        return executeAll(tasks);
     }
     
     /**
      * Execute tasks in parallel at EC class level
+     * With an EC concurrency limit, the tasks are dealt round-robin to that
+     * many groups and each group runs its tasks one after the other.
      */
     public <T> List<T> executeECClassLevel(List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
-        List<Future<T>> futures = ecClassLevelExecutor.invokeAll(tasks);
+        int groups = ecConcurrency;
+        if (groups <= 0 || tasks.size() <= groups) {
+            return executeAll(tasks);
+        }
+        List<T> results = new ArrayList<>(Collections.nCopies(tasks.size(), (T) null));
+        Throwable[] failures = new Throwable[tasks.size()];
+        List<Callable<Void>> groupTasks = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            final int first = g;
+            groupTasks.add(() -> {
+                for (int i = first; i < tasks.size(); i += groups) {
+                    try {
+                        results.set(i, tasks.get(i).call());
+                    } catch (Exception e) {
+                        failures[i] = e;
+                    }
+                }
+                return null;
+            });
+        }
+        executeAll(groupTasks);
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Run tasks on the scheduler and return their results in order.
+     * From a scheduler thread the tasks are forked and joined. All tasks run
+     * to completion; the first failure is then thrown.
+     */
+    private <T> List<T> executeAll(List<Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        List<ForkJoinTask<T>> forked = new ArrayList<>();
+        for (Callable<T> task : tasks) {
+            forked.add(fork(task));
+        }
+        // Last forked first: it is the next one this worker would pop itself.
+        // The core token is given back meanwhile, for the tasks this one waits for
+        int tokens = CoreGovernor.suspend();
+        try {
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                forked.get(i).quietlyJoin();
+            }
+        } finally {
+            CoreGovernor.resume(tokens);
+        }
         List<T> results = new ArrayList<>();
-        for (Future<T> future : futures) {
-            results.add(future.get());
+        for (ForkJoinTask<T> task : forked) {
+            results.add(join(task));
         }
         return results;
     }
     
+    /**
+     * Start a task on the scheduler, e.g. a stage whose result several later
+     * tasks wait for with join
+     */
+    public <T> ForkJoinTask<T> fork(Callable<T> task) {
+        ForkJoinTask<T> forked = ForkJoinTask.adapt(() -> CoreGovernor.run(task));
+        if (ForkJoinTask.getPool() == scheduler) {
+            forked.fork();
+        } else {
+            scheduler.execute(forked);
+        }
+        return forked;
+    }
+    
+    /**
+     * Wait for a forked task and return its result. The waiting worker runs
+     * other tasks meanwhile and gives its core token back.
+     */
+    public <T> T join(ForkJoinTask<T> task) throws InterruptedException, ExecutionException {
+        if (!task.isDone()) {
+            int tokens = CoreGovernor.suspend();
+            try {
+                task.quietlyJoin();
+            } finally {
+                CoreGovernor.resume(tokens);
+            }
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Throwable failure = task.getException();
+        if (failure != null) {
+            // ForkJoinTask.adapt wraps checked exceptions in a RuntimeException,
+            // and a join may wrap the exception of another thread once more
+            while (failure.getClass() == RuntimeException.class && failure.getCause() != null) {
+                failure = failure.getCause();
+            }
+            throw new ExecutionException(failure);
+        }
+        return task.getRawResult();
+    }
+    
     /**
      * Submit single task at protein level
      */
     public <T> CompletableFuture<T> submitProteinTask(Supplier<T> task) {
-        return CompletableFuture.supplyAsync(task, proteinLevelExecutor);
+        return CompletableFuture.supplyAsync(governed(task), scheduler);
     }
     
     /**
      * Submit single task at method level
      */
     public <T> CompletableFuture<T> submitMethodTask(Supplier<T> task) {
-        return CompletableFuture.supplyAsync(task, methodLevelExecutor);
+        return CompletableFuture.supplyAsync(governed(task), scheduler);
     }
     
     /**
      * Submit single task at EC class level
      */
     public <T> CompletableFuture<T> submitECClassTask(Supplier<T> task) {
-        return CompletableFuture.supplyAsync(task, ecClassLevelExecutor);
+        return CompletableFuture.supplyAsync(governed(task), scheduler);
+    }
+    
+    /**
+     * Run a submitted task on a core token
+     */
+    private static <T> Supplier<T> governed(Supplier<T> task) {
+        return () -> {
+            try {
+                return CoreGovernor.run(task::get);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+    }
+    
+    /**
+     * Body of a block-parallel loop over [from, to)
+     */
+    public interface BlockTask {
+        void run(int from, int to) throws Exception;
+    }
+    
+    /**
+     * Run task over [0, n) in contiguous blocks on the scheduler and wait
+     * for all of them. Blocks write their results by index, so callers merge
+     * them in order. Inputs of a single block run on the calling thread.
+     */
+    public void forEachBlock(int n, BlockTask task) throws InterruptedException, ExecutionException {
+        forEachBlock(n, dataBlockSize, task);
+    }
+    
+    /**
+     * Run task over [0, n) in blocks of blockSize on the scheduler.
+     * May be nested: called from a block, the sub-blocks are forked and joined
+     * so the waiting worker keeps executing tasks instead of blocking.
+     */
+    public void forEachBlock(int n, int blockSize, BlockTask task) throws InterruptedException, ExecutionException {
+        if (n <= blockSize) {
+            try {
+                task.run(0, n);
+            } catch (InterruptedException | ExecutionException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ExecutionException(e);
+            }
+            return;
+        }
+        List<Callable<Void>> blocks = new ArrayList<>();
+        for (int from = 0; from < n; from += blockSize) {
+            final int start = from;
+            final int end = Math.min(n, from + blockSize);
+            blocks.add(() -> {
+                task.run(start, end);
+                return null;
+            });
+        }
+        executeAll(blocks);
     }
     
     /**
@@ -191,12 +362,10 @@ public class ParallelExecutor {
     }
     
     /**
-     * Shutdown all executors gracefully
+     * Shutdown the scheduler gracefully
      */
     public void shutdown() {
-        shutdownExecutor(proteinLevelExecutor, "Protein Level");
-        shutdownExecutor(methodLevelExecutor, "Method Level");
-        shutdownExecutor(ecClassLevelExecutor, "EC Class Level");
+        shutdownExecutor(scheduler, "Scheduler");
     }
     
     private void shutdownExecutor(ExecutorService executor, String name) {
@@ -219,21 +388,60 @@ public class ParallelExecutor {
      * Get executor for protein level tasks
      */
     public ExecutorService getProteinLevelExecutor() {
-        return proteinLevelExecutor;
+        return scheduler;
     }
     
     /**
      * Get executor for method level tasks
      */
     public ExecutorService getMethodLevelExecutor() {
-        return methodLevelExecutor;
+        return scheduler;
     }
     
     /**
      * Get executor for EC class level tasks
      */
     public ExecutorService getECClassLevelExecutor() {
-        return ecClassLevelExecutor;
+        return scheduler;
+    }
+    
+    /**
+     * Get fork-join pool for data-parallel work within an EC task
+     */
+    public ForkJoinPool getDataLevelPool() {
+        return scheduler;
+    }
+    
+    public void setBlockSize(int blockSize) {
+        dataBlockSize = Math.max(1, blockSize);
+    }
+    
+    public int getBlockSize() {
+        return dataBlockSize;
+    }
+    
+    public void setEcConcurrency(int concurrency) {
+        ecConcurrency = concurrency;
+    }
+    
+    public int getEcConcurrency() {
+        return ecConcurrency;
+    }
+    
+    public void setProteinConcurrency(int concurrency) {
+        proteinConcurrency = concurrency;
+    }
+    
+    public int getProteinConcurrency() {
+        return proteinConcurrency;
+    }
+    
+    public void setBlastThreads(int threads) {
+        blastThreads = threads;
+    }
+    
+    public int getBlastThreads() {
+        return blastThreads;
     }
     
     /**
@@ -245,7 +453,5 @@ public class ParallelExecutor {
             throw new IllegalArgumentException("CPU count must be at least 1");
         }
         userCpuCount = cpuCount;
-        proteinLevelThreads = userCpuCount;
-        ecClassLevelThreads = userCpuCount;
     }
 }
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+/**
+ * In-JVM implementation of the EMBOSS pepstats features used by ECPred.
+ * Computes, from the sequence alone, the values fasta2Pepstats_noscale.parse_single
+ * reads from a pepstats report, in the same order and with the same printed
+ * precision. Residue masses, charges, pK values, extinction coefficients and
+ * Dayhoff frequencies are those of the EMBOSS 6.5.7 data files. main checks
+ * the values against a report recorded with EMBOSS pepstats.
+ */
+public class PepstatsCalculator {
+
+    // Average residue masses (Emolwt.dat), indexed by letter
+    private static final double[] MASS = new double[26];
+    private static final double WATER = 18.01528;
+
+    // Residue charges (Eamino.dat)
+    private static final double[] CHARGE = new double[26];
+
+    // Dayhoff relative frequencies in percent (Edayhoff.freq); 0 for B, J, O, U, X, Z
+    private static final double[] DAYHOFF = new double[26];
+
+    // pK values (Epk.dat)
+    private static final double PK_AMINO = 8.6;
+    private static final double PK_CARBOXYL = 3.6;
+    private static final double PK_C = 8.5;
+    private static final double PK_D = 3.9;
+    private static final double PK_E = 4.1;
+    private static final double PK_H = 6.5;
+    private static final double PK_K = 10.8;
+    private static final double PK_R = 12.5;
+    private static final double PK_Y = 10.1;
+
+    // A280 molar extinction coefficients (Pace et al.)
+    private static final int EXT_W = 5500;
+    private static final int EXT_Y = 1490;
+    private static final int EXT_CYSTINE = 125;
+
+    // Wilkinson-Harrison solubility model
+    private static final double LAMBDA1 = 15.43;
+    private static final double LAMBDA2 = -29.56;
+    private static final double CV_PRIME = 1.71;
+
+    // Reported residues: A-Z without B, J, O, U, X, Z
+    private static final String DAYHOFF_RESIDUES = "ACDEFGHIKLMNPQRSTVWY";
+
+    // Property classes of the pepstats report, in report order
+    private static final String[] PROPERTY_CLASSES = {
+        "ACGST",        // Tiny
+        "ABCDGNPSTV",   // Small
+        "AILV",         // Aliphatic
+        "FHWY",         // Aromatic
+        "ACFGILMPVWY",  // Non-polar
+        "DEHKNQRSTZ",   // Polar
+        "BDEHKRZ",      // Charged
+        "HKR",          // Basic
+        "BDEZ"          // Acidic
+    };
+
+    // Width of the zero vector read_pepstats uses for reports without a pI
+    private static final int EMPTY_VECTOR_SIZE = 40;
+
+    static {
+        double[] masses = {
+            71.0788, 114.5962, 103.1388, 115.0886, 129.1155, 147.1766, 57.0519, 137.1411, 113.1594, 113.1594,
+            128.1741, 113.1594, 131.1926, 114.1038, 237.3018, 97.1167, 128.1307, 156.1875, 87.0782, 101.1051,
+            150.0388, 99.1326, 186.2132, 110.0000, 163.1760, 128.6231
+        };
+        System.arraycopy(masses, 0, MASS, 0, MASS.length);
+
+        CHARGE['D' - 'A'] = -1.0;
+        CHARGE['E' - 'A'] = -1.0;
+        CHARGE['B' - 'A'] = -0.5;
+        CHARGE['Z' - 'A'] = -0.5;
+        CHARGE['H' - 'A'] = 0.5;
+        CHARGE['K' - 'A'] = 1.0;
+        CHARGE['R' - 'A'] = 1.0;
+
+        double[] frequencies = {
+            8.6, 2.9, 5.5, 6.0, 3.6, 8.4, 2.0, 4.5, 6.6, 7.4,
+            1.7, 4.3, 5.2, 3.9, 4.9, 7.0, 6.1, 6.6, 1.3, 3.4
+        };
+        for (int i = 0; i < DAYHOFF_RESIDUES.length(); i++) {
+            DAYHOFF[DAYHOFF_RESIDUES.charAt(i) - 'A'] = frequencies[i];
+        }
+    }
+
+    /**
+     * Pepstats features of a protein sequence, as parse_single returns them
+     */
+    public static Vector<String> features(String sequence) {
+        int[] counts = new int[26];
+        int length = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = Character.toUpperCase(sequence.charAt(i));
+            if (c >= 'A' && c <= 'Z') {
+                counts[c - 'A']++;
+                length++;
+            }
+        }
+        Vector<String> values = new Vector<>();
+        if (length == 0) {
+            for (int i = 0; i < EMPTY_VECTOR_SIZE; i++) {
+                values.add("0.0");
+            }
+            return values;
+        }
+
+        double molwt = WATER;
+        double charge = 0.0;
+        for (int a = 0; a < 26; a++) {
+            molwt += counts[a] * MASS[a];
+            charge += counts[a] * CHARGE[a];
+        }
+        int reduced = EXT_W * count(counts, 'W') + EXT_Y * count(counts, 'Y');
+        int cystine = reduced + EXT_CYSTINE * (count(counts, 'C') / 2);
+
+        values.add(format("%.2f", molwt));
+        values.add(Integer.toString(length));
+        values.add(format("%.3f", molwt / length));
+        values.add(format("%.1f", charge));
+        values.add(format("%.4f", isoelectricPoint(counts)));
+        values.add(Integer.toString(cystine));
+        values.add(format("%.3f", cystine / molwt));
+        values.add(format("%.3f", inclusionBodyScore(counts, length)));
+
+        for (int i = 0; i < DAYHOFF_RESIDUES.length(); i++) {
+            int a = DAYHOFF_RESIDUES.charAt(i) - 'A';
+            double molePercent = 100.0 * counts[a] / length;
+            values.add(format("%.3f", molePercent / DAYHOFF[a]));
+        }
+
+        for (String members : PROPERTY_CLASSES) {
+            int number = 0;
+            for (int i = 0; i < members.length(); i++) {
+                number += count(counts, members.charAt(i));
+            }
+            values.add(format("%.3f", 100.0 * number / length));
+        }
+        return values;
+    }
+
+    private static int count(int[] counts, char residue) {
+        return counts[residue - 'A'];
+    }
+
+    private static String format(String pattern, double value) {
+        return String.format(Locale.ROOT, pattern, value);
+    }
+
+    /**
+     * Net charge at a given pH (Henderson-Hasselbalch, both termini included)
+     */
+    static double netCharge(int[] counts, double pH) {
+        return positive(1, PK_AMINO, pH)
+            + positive(count(counts, 'K'), PK_K, pH)
+            + positive(count(counts, 'R'), PK_R, pH)
+            + positive(count(counts, 'H'), PK_H, pH)
+            - negative(1, PK_CARBOXYL, pH)
+            - negative(count(counts, 'D'), PK_D, pH)
+            - negative(count(counts, 'E'), PK_E, pH)
+            - negative(count(counts, 'C'), PK_C, pH)
+            - negative(count(counts, 'Y'), PK_Y, pH);
+    }
+
+    private static double positive(int n, double pK, double pH) {
+        return n / (1.0 + Math.pow(10.0, pH - pK));
+    }
+
+    private static double negative(int n, double pK, double pH) {
+        return n / (1.0 + Math.pow(10.0, pK - pH));
+    }
+
+    /**
+     * pH of zero net charge, found by bisection
+     */
+    static double isoelectricPoint(int[] counts) {
+        double low = 0.0;
+        double high = 14.0;
+        while (high - low > 1e-7) {
+            double mid = (low + high) / 2.0;
+            if (netCharge(counts, mid) > 0) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return (low + high) / 2.0;
+    }
+
+    /**
+     * Probability (or improbability) of expression in inclusion bodies.
+     * pepstats reports the same number either way; only the label differs.
+     */
+    static double inclusionBodyScore(int[] counts, int length) {
+        double turnFormers = count(counts, 'N') + count(counts, 'G') + count(counts, 'P') + count(counts, 'S');
+        double netCharge = (count(counts, 'R') + count(counts, 'K')) - (count(counts, 'D') + count(counts, 'E'));
+        double cv = LAMBDA1 * (turnFormers / length) + LAMBDA2 * Math.abs(netCharge / length - 0.03);
+        double diff = cv - CV_PRIME;
+        return 0.4934 + 0.276 * Math.abs(diff) - 0.0392 * diff * diff;
+    }
+
+    /**
+     * Values of the calculator that differ from those of an EMBOSS report
+     * by more than one unit in the last place printed by EMBOSS, as
+     * "protein value: report calculator" lines
+     */
+    static List<String> compare(String id, Vector<String> report, Vector<String> calculated) {
+        List<String> differences = new ArrayList<>();
+        if (report.size() != calculated.size()) {
+            differences.add(id + ": " + report.size() + " values in the report, " + calculated.size() + " calculated");
+            return differences;
+        }
+        for (int i = 0; i < report.size(); i++) {
+            String expected = report.get(i);
+            int point = expected.indexOf('.');
+            double tolerance = point < 0 ? 0.0 : Math.pow(10.0, -(expected.length() - point - 1));
+            if (Math.abs(Double.parseDouble(expected) - Double.parseDouble(calculated.get(i))) > tolerance + 1e-9) {
+                differences.add(id + " value " + i + ": " + expected + " " + calculated.get(i));
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * Usage: PepstatsCalculator fastaFile pepstatsReport
+     * Compares the calculator with a report of EMBOSS pepstats 6.5.7 on the
+     * same FASTA file (pepstats -sequence fastaFile -outfile pepstatsReport)
+     * and exits with status 1 if some value is out of tolerance.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Sample run: java -cp ECPred.jar PepstatsCalculator fastaFile pepstatsReport");
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        List<String> sequences = new ArrayList<>();
+        SequenceLibrary.readFasta(args[0]).forEach((id, sequence) -> {
+            ids.add(id);
+            sequences.add(sequence);
+        });
+        Vector<Vector<String>> reports = fasta2Pepstats_noscale.read_pepstats(args[1]);
+        if (reports.size() != sequences.size()) {
+            System.out.println(args[1] + " has " + reports.size() + " reports for " + sequences.size() + " sequences in " + args[0]);
+            System.exit(1);
+        }
+        List<String> differences = new ArrayList<>();
+        for (int p = 0; p < sequences.size(); p++) {
+            differences.addAll(compare(ids.get(p), reports.get(p), features(sequences.get(p))));
+        }
+        for (String difference : differences) {
+            System.out.println(difference);
+        }
+        System.out.println(sequences.size() + " proteins, " + differences.size() + " values out of tolerance");
+        if (!differences.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared pepstats feature stage.
+ * The raw (unscaled) pepstats features depend only on the protein sequence,
+ * so they are computed once per sequence and reused by every EC task; each
+ * EC then applies only its own rangefile scaling.
+ */
+public class PepstatsFeatures {
+
+    private static final String EMBOSS_VERSION = "EMBOSS-6.5.7";
+
+    // "emboss" (default) or "java" (PepstatsCalculator)
+    private static final String BACKEND = ECPredConfig.getString("pepstats.backend", "emboss");
+
+    // sequence -> raw feature values as parsed from the pepstats report
+    private static final Map<String, Vector<String>> featureCache = new ConcurrentHashMap<>();
+
+    // One pepstats run per input file at a time
+    private static final Map<String, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Raw feature vectors of all proteins of fastaFile, in file order.
+     * pepstats is run (in workDir) only if some sequence has not been seen yet.
+     * The vectors are collected before they are returned, so a concurrent
+     * request evicting the same sequence does not take them away.
+     */
+    public static Vector<Vector<String>> getVectors(String ROOTPATH, String fastaFile, String workDir)
+        throws IOException, InterruptedException
+    {
+        List<String> sequences = new ArrayList<>(SequenceLibrary.readFasta(fastaFile).values());
+        int distinct = new HashSet<>(sequences).size();
+        Map<String, Vector<String>> features = cached(sequences);
+        if (features.size() < distinct) {
+            ReentrantLock lock = fileLocks.computeIfAbsent(new File(fastaFile).getAbsolutePath(), k -> new ReentrantLock());
+            lockWithoutToken(lock);
+            try {
+                features = cached(sequences);
+                if (features.size() < distinct) {
+                    if (useJavaBackend()) {
+                        for (String sequence : sequences) {
+                            features.computeIfAbsent(sequence, s -> featureCache.computeIfAbsent(s, PepstatsCalculator::features));
+                        }
+                    } else {
+                        features = computeFeatures(ROOTPATH, fastaFile, workDir, sequences);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Vector<Vector<String>> vects = new Vector<>();
+        for (String sequence : sequences) {
+            vects.add(features.get(sequence));
+        }
+        return vects;
+    }
+
+    /**
+     * Take the lock of a FASTA file. While another request runs pepstats on
+     * the file, the core token is given back; the wait is not a managed
+     * block, so it starts no spare worker.
+     */
+    private static void lockWithoutToken(ReentrantLock lock) throws InterruptedException {
+        if (lock.tryLock()) {
+            return;
+        }
+        int tokens = CoreGovernor.suspend();
+        try {
+            lock.lockInterruptibly();
+        } finally {
+            CoreGovernor.resume(tokens);
+        }
+    }
+
+    /**
+     * The in-JVM calculator is used only when requested; its values are
+     * checked against EMBOSS reports with PepstatsCalculator's main
+     */
+    private static boolean useJavaBackend() {
+        return BACKEND.equalsIgnoreCase("java");
+    }
+
+    private static String pepstatsPath(String ROOTPATH) {
+        return ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/" + EMBOSS_VERSION + "/emboss/pepstats";
+    }
+
+    /**
+     * Cached features of those sequences that have them
+     */
+    private static Map<String, Vector<String>> cached(List<String> sequences) {
+        Map<String, Vector<String>> features = new HashMap<>();
+        for (String sequence : sequences) {
+            Vector<String> vect = featureCache.get(sequence);
+            if (vect != null) {
+                features.put(sequence, vect);
+            }
+        }
+        return features;
+    }
+
+    private static Map<String, Vector<String>> computeFeatures(String ROOTPATH, String fastaFile, String workDir, List<String> sequences)
+        throws IOException, InterruptedException
+    {
+        new File(workDir).mkdirs();
+        String outFile = workDir + File.separator + "pepstats_" + Thread.currentThread().getId() + ".out";
+        String pepstats = pepstatsPath(ROOTPATH);
+        if (!new File(pepstats).exists()) {
+            throw new IOException("EMBOSS pepstats not found at " + pepstats
+                + "; install EMBOSS there or run with -Decpred.pepstats.backend=java");
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(pepstats, "-sequence", fastaFile, "-outfile", outFile, "-warning", "FALSE");
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = ExternalProcesses.start(pb);
+        try
+        {
+            ExternalProcesses.waitFor(process);
+        }
+        catch (InterruptedException e)
+        {
+            System.out.print("pepstats is not working!");
+            e.printStackTrace();
+            throw e;
+        }
+
+        Vector<Vector<String>> vects = fasta2Pepstats_noscale.read_pepstats(outFile);
+        new File(outFile).delete();
+        if (vects.size() != sequences.size()) {
+            throw new IOException("pepstats returned " + vects.size() + " reports for " + sequences.size() + " sequences in " + fastaFile);
+        }
+        Map<String, Vector<String>> features = new HashMap<>();
+        for (int i = 0; i < sequences.size(); i++) {
+            featureCache.putIfAbsent(sequences.get(i), vects.get(i));
+            features.put(sequences.get(i), vects.get(i));
+        }
+        return features;
+    }
+
+    /**
+     * Drop the features of a sequence once its hierarchy has been predicted
+     */
+    public static void evict(String sequence) {
+        if (sequence != null) {
+            featureCache.remove(sequence);
+        }
+    }
+
+    /**
+     * Drop the locks of the FASTA files whose path starts with prefix
+     */
+    static void evictFiles(String prefix) {
+        String absolute = new File(prefix).getAbsolutePath();
+        fileLocks.keySet().removeIf(path -> path.startsWith(absolute));
+    }
+
+    public static void clear() {
+        featureCache.clear();
+    }
+}
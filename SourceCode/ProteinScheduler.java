@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the subclass walks of the proteins longest first.
+ * The cost of a protein is estimated as its length times the number of child
+ * ECs of its main class, since SPMAP windows, alignments and EC tasks all grow
+ * with these. Starting the most expensive walks first (LPT scheduling) keeps a
+ * few long proteins from setting the makespan at the end of the run.
+ */
+public class ProteinScheduler {
+
+    private static class Job {
+        final String id;
+        final long cost;
+
+        Job(String id, long cost) {
+            this.id = id;
+            this.cost = cost;
+        }
+    }
+
+    private final int workers;
+    private final List<Job> jobs = new ArrayList<>();
+
+    public ProteinScheduler(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Add a protein with its sequence length and number of child ECs
+     */
+    public void add(String id, int length, int childECs) {
+        jobs.add(new Job(id, cost(length, childECs)));
+    }
+
+    static long cost(int length, int childECs) {
+        return (long) Math.max(1, length) * Math.max(1, childECs);
+    }
+
+    /**
+     * Protein ids by estimated cost, longest first; ties keep insertion order
+     */
+    public List<String> order() {
+        List<Job> sorted = sorted();
+        List<String> ids = new ArrayList<>(sorted.size());
+        for (Job job : sorted) {
+            ids.add(job.id);
+        }
+        return ids;
+    }
+
+    private List<Job> sorted() {
+        List<Job> sorted = new ArrayList<>(jobs);
+        sorted.sort(Comparator.comparingLong((Job job) -> job.cost).reversed());
+        return sorted;
+    }
+
+    /**
+     * Number of proteins
+     */
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Total estimated cost of all proteins
+     */
+    public long totalCost() {
+        long total = 0;
+        for (Job job : jobs) {
+            total += job.cost;
+        }
+        return total;
+    }
+
+    /**
+     * Makespan, in cost units, of the longest-first order on the workers:
+     * each protein goes to the worker that becomes free first
+     */
+    public long predictedMakespan() {
+        PriorityQueue<Long> loads = new PriorityQueue<>();
+        for (int i = 0; i < workers; i++) {
+            loads.add(0L);
+        }
+        long makespan = 0;
+        for (Job job : sorted()) {
+            long load = loads.poll() + job.cost;
+            makespan = Math.max(makespan, load);
+            loads.add(load);
+        }
+        return makespan;
+    }
+
+    /**
+     * Print the predicted makespan next to the measured one. msPerUnit
+     * converts cost units to milliseconds of one worker, e.g. as measured on
+     * the main-class pass.
+     */
+    public void report(long actualMs, double msPerUnit) {
+        long predictedMs = Math.round(predictedMakespan() * msPerUnit);
+        System.out.println("[TIMER] Subclass makespan: predicted " + predictedMs + " ms, actual " + actualMs + " ms ("
+            + jobs.size() + " proteins, longest first on " + workers + " workers)");
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compiled binary form of an SPMAP profile (spmap/profile.bin).
+ * Holds the cluster weights in the flat position-major layout used by
+ * seq2vectPSSMtest, so a profile is loaded with one memory-mapped bulk read
+ * instead of parsing profile.txt.
+ *
+ * File layout (big-endian):
+ * magic, version, cluster count, subseqlen, alphabet size,
+ * weights (double[subseqlen * alphabet size * cluster count]).
+ */
+public class SPMAPProfileFile {
+
+    public static final String FILE_NAME = "profile.bin";
+
+    private static final int MAGIC = 0x53504D50; // "SPMP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+
+    // Subsequence length of the shipped profiles (see predictBatchSPMAP)
+    private static final int DEFAULT_SUBSEQLEN = 5;
+
+    /**
+     * Compiled profile of an SPMAP directory, or null if there is none or it
+     * is older than profile.txt
+     */
+    public static Path compiledPath(String spmapDir) {
+        Path binary = Paths.get(spmapDir, FILE_NAME);
+        Path text = Paths.get(spmapDir, "profile.txt");
+        try {
+            if (!Files.exists(binary)) {
+                return null;
+            }
+            if (Files.exists(text) && Files.getLastModifiedTime(text).compareTo(Files.getLastModifiedTime(binary)) > 0) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return binary;
+    }
+
+    /**
+     * Read the weights of a compiled profile
+     */
+    public static double[] read(Path path, int subseqlen, int alphabetSize) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a compiled SPMAP profile: " + path);
+            }
+            int clusterCount = buffer.getInt(8);
+            if (buffer.getInt(12) != subseqlen || buffer.getInt(16) != alphabetSize) {
+                throw new IOException("Compiled SPMAP profile " + path + " was built for subseqlen " + buffer.getInt(12));
+            }
+            long count = (long) subseqlen * alphabetSize * clusterCount;
+            if (channel.size() != HEADER_BYTES + 8 * count) {
+                throw new IOException("Truncated compiled SPMAP profile: " + path);
+            }
+            double[] weights = new double[(int) count];
+            buffer.position(HEADER_BYTES);
+            buffer.asDoubleBuffer().get(weights);
+            return weights;
+        }
+    }
+
+    /**
+     * Write compiled weights, replacing the file atomically
+     */
+    public static void write(Path path, double[] weights, int clusterCount, int subseqlen, int alphabetSize) throws IOException {
+        Path tmpPath = Paths.get(path + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 8 * weights.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(clusterCount).putInt(subseqlen).putInt(alphabetSize);
+        buffer.asDoubleBuffer().put(weights);
+        Files.write(tmpPath, buffer.array());
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Compile the profile.txt of every EC of a library.
+     * Usage: SPMAPProfileFile libraryDir [subseqlen]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Sample run: java -cp ECPred.jar SPMAPProfileFile libraryDir [subseqlen]");
+            return;
+        }
+        int subseqlen = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SUBSEQLEN;
+        String ROOTPATH = Paths.get(args[0], "lib", "EC").toString();
+        File[] ecDirs = new File(ROOTPATH).listFiles(File::isDirectory);
+        if (ecDirs == null) {
+            System.out.println("No EC directories found under " + ROOTPATH);
+            return;
+        }
+        int compiled = 0;
+        for (File ecDir : ecDirs) {
+            if (seq2vectPSSMtest.compileProfile(ROOTPATH, ecDir.getName(), subseqlen)) {
+                compiled++;
+            }
+        }
+        System.out.println("Compiled " + compiled + " SPMAP profiles under " + ROOTPATH);
+    }
+}
@@ -269,23 +269,28 @@ public class SVMLightClassifier {
     }
     
     /**
-     * Classify all instances from a file and write predictions to output
-     * Optimized version that doesn't store all instances in memory
+     * Classify all instances from a file and write predictions to output.
+     * Blocks of instances are parsed and classified in parallel on the
+     * data-level pool; predictions are written in input order.
      */
     private void classifyFile(String testFile, String predFile) throws IOException {
-        // Pre-allocate StringBuilder for better performance
-        StringBuilder lineBuffer = new StringBuilder(2048);
-        
-        try (BufferedReader br = new BufferedReader(new FileReader(testFile), 131072);
-             BufferedWriter bw = new BufferedWriter(new FileWriter(predFile), 131072)) {
-            
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(testFile), 131072)) {
             String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        }
+        
+        double[] predictions = new double[lines.size()];
+        runBlocks(lines.size(), (from, to) -> {
             int[] indices = new int[maxFeatureIndex + 1];
             double[] values = new double[maxFeatureIndex + 1];
-            
-            while ((line = br.readLine()) != null) {
+            for (int n = from; n < to; n++) {
+                String line = lines.get(n);
                 int len = line.length();
-                if (len == 0) continue;
                 
                 // Parse instance inline without split
                 int featIdx = 0;
@@ -320,16 +325,32 @@ public class SVMLightClassifier {
                     featIdx++;
                 }
                 
-                // Classify
-                double prediction = classifyFast(indices, values, featIdx);
-                
-                // Write result
+                predictions[n] = classifyFast(indices, values, featIdx);
+            }
+        });
+        writePredictions(predictions, predFile);
+    }
+    
+    private static void writePredictions(double[] predictions, String predFile) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(predFile), 131072)) {
+            for (double prediction : predictions) {
                 bw.write(Double.toString(prediction));
                 bw.write('\n');
             }
         }
     }
     
+    private static void runBlocks(int n, ParallelExecutor.BlockTask task) throws IOException {
+        try {
+            ParallelExecutor.getInstance().forEachBlock(n, task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("SVM classification interrupted", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IOException("SVM classification failed", e.getCause());
+        }
+    }
+    
     /**
      * Fast double parsing for ASCII numeric strings
      */
@@ -512,6 +533,65 @@ public class SVMLightClassifier {
      * Static convenience method for classification with caching
      */
     public static void classify(String testFile, String modelFile, String predFile) throws IOException {
+        getModel(modelFile).classifyFile(testFile, predFile);
+    }
+    
+    /**
+     * Scale dense instances with an svm-scale range and classify them,
+     * without writing the scaled vectors to disk
+     */
+    public static void classify(double[][] instances, SvmScaleRange range, String modelFile, String predFile) throws IOException {
+        writePredictions(predict(instances, range, modelFile), predFile);
+    }
+    
+    /**
+     * Scale dense instances with an svm-scale range and return their predictions
+     */
+    public static double[] predict(double[][] instances, SvmScaleRange range, String modelFile) throws IOException {
+        SVMLightClassifier classifier = getModel(modelFile);
+        double[][] limits = range.limits(instances);
+        double[] predictions = new double[instances.length];
+        
+        runBlocks(instances.length, (from, to) -> {
+            int[] indices = new int[limits[0].length];
+            double[] values = new double[limits[0].length];
+            for (int n = from; n < to; n++) {
+                int numFeatures = range.scale(instances[n], limits, indices, values);
+                predictions[n] = classifier.classifyFast(indices, values, numFeatures);
+            }
+        });
+        return predictions;
+    }
+    
+    /**
+     * Predictions of dense instances given as is (value j is feature j + 1,
+     * zeros included), as if they were read from a test file
+     */
+    public static double[] predict(double[][] instances, String modelFile) throws IOException {
+        SVMLightClassifier classifier = getModel(modelFile);
+        double[] predictions = new double[instances.length];
+        
+        runBlocks(instances.length, (from, to) -> {
+            for (int n = from; n < to; n++) {
+                double[] values = instances[n];
+                int[] indices = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    indices[j] = j + 1;
+                }
+                predictions[n] = classifier.classifyFast(indices, values, values.length);
+            }
+        });
+        return predictions;
+    }
+    
+    /**
+     * Load a model into the cache ahead of its first use
+     */
+    public static void preload(String modelFile) throws IOException {
+        getModel(modelFile);
+    }
+    
+    private static SVMLightClassifier getModel(String modelFile) throws IOException {
         // Check cache first (lock-free read for common case)
         SVMLightClassifier classifier = modelCache.get(modelFile);
         
@@ -523,8 +603,7 @@ public class SVMLightClassifier {
             // Re-read in case another thread added it
             classifier = modelCache.get(modelFile);
         }
-        
-        classifier.classifyFile(testFile, predFile);
+        return classifier;
     }
     
     /**
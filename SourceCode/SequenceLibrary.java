@@ -0,0 +1,165 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Training sequences of one EC BLAST database, held in memory for the
+ * in-JVM alignment backend.
+ * The sequences are read from ROOTPATH/EC/blast/EC.fasta, which can be
+ * exported from the BLAST database with the main method of this class.
+ */
+public class SequenceLibrary {
+
+    // Libraries are shared by all EC tasks of a run (thread-safe)
+    private static final Map<String, SequenceLibrary> libraryCache = new ConcurrentHashMap<>();
+
+    final String[] ids;
+    final byte[][] sequences;
+    final long totalResidues;
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+
+    private SequenceLibrary(String[] ids, byte[][] sequences) {
+        this.ids = ids;
+        this.sequences = sequences;
+        long total = 0;
+        for (int i = 0; i < sequences.length; i++) {
+            total += sequences[i].length;
+            ordinals.put(ids[i], i);
+        }
+        this.totalResidues = total;
+    }
+
+    /**
+     * Position of a sequence in this library, or -1 if it is not part of it
+     */
+    public int indexOf(String id) {
+        Integer ordinal = ordinals.get(id);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Path of the FASTA export of an EC BLAST database
+     */
+    public static String fastaPath(String ROOTPATH, String ecnum) {
+        return ROOTPATH + File.separator + ecnum + File.separator + "blast" + File.separator + ecnum + ".fasta";
+    }
+
+    public static boolean exists(String ROOTPATH, String ecnum) {
+        return new File(fastaPath(ROOTPATH, ecnum)).exists();
+    }
+
+    /**
+     * Get the library of an EC, loading it on first use
+     */
+    public static SequenceLibrary get(String ROOTPATH, String ecnum) throws IOException {
+        String path = fastaPath(ROOTPATH, ecnum);
+        SequenceLibrary library = libraryCache.get(path);
+        if (library == null) {
+            library = load(path);
+            libraryCache.putIfAbsent(path, library);
+            library = libraryCache.get(path);
+        }
+        return library;
+    }
+
+    private static SequenceLibrary load(String path) throws IOException {
+        Map<String, String> fasta = readFasta(path);
+        String[] ids = new String[fasta.size()];
+        byte[][] sequences = new byte[fasta.size()][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : fasta.entrySet()) {
+            ids[i] = entry.getKey();
+            sequences[i] = SmithWaterman.encode(entry.getValue());
+            i++;
+        }
+        return new SequenceLibrary(ids, sequences);
+    }
+
+    /**
+     * Read a FASTA file into id -> sequence, in file order.
+     * IDs are taken the way blastp reports them and Blast.parseTabBlast
+     * reads them: the second field of "db|accession|name" headers, the
+     * first word otherwise.
+     */
+    public static LinkedHashMap<String, String> readFasta(String path) throws IOException {
+        LinkedHashMap<String, String> fasta = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String id = null;
+            StringBuilder seq = new StringBuilder();
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(">")) {
+                    if (id != null) {
+                        fasta.put(id, seq.toString());
+                    }
+                    id = parseId(line);
+                    seq.setLength(0);
+                } else {
+                    seq.append(line.trim());
+                }
+            }
+            if (id != null) {
+                fasta.put(id, seq.toString());
+            }
+        }
+        return fasta;
+    }
+
+    static String parseId(String header) {
+        String word = header.substring(1).trim();
+        int space = word.indexOf(' ');
+        if (space >= 0) {
+            word = word.substring(0, space);
+        }
+        if (word.contains("|")) {
+            StringTokenizer st = new StringTokenizer(word, "|");
+            String first = st.nextToken();
+            return st.hasMoreTokens() ? st.nextToken() : first;
+        }
+        return word;
+    }
+
+    /**
+     * Export the FASTA libraries of all EC BLAST databases with blastdbcmd.
+     * Usage: SequenceLibrary libraryDir
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Sample run: java -cp ECPred.jar SequenceLibrary libraryDir");
+            return;
+        }
+        String ROOTPATH = java.nio.file.Paths.get(args[0], "lib", "EC").toString();
+        String blastdbcmd = java.nio.file.Paths.get(args[0], "ncbi-blast-2.7.1+", "bin", "blastdbcmd").toString();
+        File[] ecDirs = new File(ROOTPATH).listFiles(File::isDirectory);
+        if (ecDirs == null) {
+            System.out.println("No EC directories found under " + ROOTPATH);
+            return;
+        }
+        List<String> failed = new ArrayList<>();
+        for (File ecDir : ecDirs) {
+            String ecnum = ecDir.getName();
+            String db = ROOTPATH + File.separator + ecnum + File.separator + "blast" + File.separator + ecnum + ".blastdb";
+            ProcessBuilder pb = new ProcessBuilder(blastdbcmd, "-db", db, "-entry", "all", "-out", fastaPath(ROOTPATH, ecnum));
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            if (ExternalProcesses.waitFor(ExternalProcesses.start(pb)) != 0) {
+                failed.add(ecnum);
+            }
+        }
+        System.out.println("Exported " + (ecDirs.length - failed.size()) + " of " + ecDirs.length + " EC libraries");
+        if (!failed.isEmpty()) {
+            System.out.println("Failed: " + failed);
+        }
+    }
+}
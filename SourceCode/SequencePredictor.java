@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hierarchical prediction of one protein in memory (-Decpred.singleSequence,
+ * on by default when the input holds one protein). All ECs and methods of a
+ * level run as concurrent tasks, and their raw predictions, confidences and
+ * scores never touch the disk: there are no per-EC directories, test.vec,
+ * .preds or .confs files, and no per-level FASTA extraction. Only blastp and
+ * EMBOSS pepstats, when used instead of their in-JVM backends, read the
+ * protein's FASTA file. Library files come from ECPredLibrary and stay loaded.
+ * The decisions are those of runEC, so the results equal the batch path.
+ */
+public class SequencePredictor {
+
+    private static final boolean ENABLED = ECPredConfig.getBoolean("singleSequence", true);
+
+    private static final int LEVELS = 3;
+
+    private final ECPredLibrary library;
+    private final String method;
+    private final String workDir;
+    private final int cores;
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * workDir holds the FASTA file and tool output of each protein
+     */
+    public SequencePredictor(ECPredLibrary library, String method, String workDir, int cores) {
+        this.library = library;
+        this.method = method;
+        this.workDir = workDir;
+        this.cores = cores;
+    }
+
+    /**
+     * One protein being predicted
+     */
+    private static class Query {
+        final String id;
+        final String sequence;
+        final String dir;
+        final String fasta;
+        private long[] windows;
+        private boolean encoded;
+
+        Query(String id, String sequence, String dir) throws IOException {
+            this.id = id;
+            this.sequence = sequence;
+            this.dir = dir;
+            this.fasta = dir + File.separator + "query.fasta";
+            new File(dir).mkdirs();
+            try (PrintWriter writer = new PrintWriter(fasta, "UTF-8")) {
+                writer.println(">" + id);
+                writer.println(sequence);
+            }
+        }
+
+        /**
+         * SPMAP windows, encoded once for all ECs
+         */
+        synchronized long[] windows() {
+            if (!encoded) {
+                windows = seq2vectPSSMtest.encodeWindows(sequence, predictBatchSPMAP.SUBSEQLEN);
+                encoded = true;
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * Predictions of one protein as ECPred keeps them: entry 0 is the main
+     * class ({EC, score}, {"non", confidence} or {"nop", "0"}), then one entry
+     * per subclass level until a level has no prediction
+     */
+    public Vector<Vector<String>> predict(String proteinKey, String sequence) throws IOException, InterruptedException {
+        Query query = new Query(proteinKey, sequence, workDir + File.separator + "query_" + Integer.toHexString(proteinKey.hashCode()));
+        try {
+            HashMap<String, Double> thresholds = library.thresholds();
+            List<String> mainClasses = ECPredLibrary.mainClasses();
+            Vector<Vector<String>> predictions = new Vector<>();
+            predictions.add(runEC.decideMainClass(scores(query, mainClasses), thresholds));
+            String mainClass = predictions.get(0).get(0);
+            if (mainClass.equals("non") || mainClass.equals("nop")) {
+                return predictions;
+            }
+            // Same descent as the subclass walks of ECPred
+            for (int i = 1; i <= LEVELS; i++) {
+                List<String> children = library.children(predictions.get(i - 1).get(0));
+                if (children.isEmpty()) {
+                    Vector<String> preds = new Vector<>();
+                    preds.add("nop");
+                    preds.add("");
+                    predictions.add(preds);
+                    break;
+                }
+                Vector<String> preds = runEC.decideSubclass(children, scores(query, children), thresholds);
+                predictions.add(preds);
+                if (preds.get(0).equals("nop")) {
+                    break;
+                }
+            }
+            return predictions;
+        } finally {
+            BlastHitCache.evict(proteinKey);
+            PepstatsFeatures.evict(sequence);
+            ECPred.deleteDirectory(new File(query.dir));
+        }
+    }
+
+    /**
+     * Rounded scores of the protein for ecnums, as in _preds.txt; every EC and
+     * method is a task of its own
+     */
+    private List<String> scores(Query query, List<String> ecnums) throws IOException, InterruptedException {
+        String[] methods = method.equals("weighted") ? new String[] {"spmap", "blast", "pepstats"} : new String[] {method};
+        BlastScheduler.Plan plan = BlastScheduler.plan(ecnums.size(), 1, query.sequence.length(), cores);
+        double[][] confs = new double[ecnums.size()][methods.length];
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int e = 0; e < ecnums.size(); e++) {
+            for (int m = 0; m < methods.length; m++) {
+                final int ec = e;
+                final int mt = m;
+                tasks.add(() -> {
+                    confs[ec][mt] = confidence(query, ecnums.get(ec), methods[mt], plan);
+                    return null;
+                });
+            }
+        }
+        try {
+            ParallelExecutor.getInstance().executeECClassLevel(tasks);
+        } catch (ExecutionException e) {
+            throw new IOException("Prediction of " + query.id + " failed", e.getCause());
+        }
+
+        List<String> scores = new ArrayList<>();
+        for (int e = 0; e < ecnums.size(); e++) {
+            double combined = confs[e][0];
+            if (methods.length == 3) {
+                double[] w = library.weights(ecnums.get(e));
+                combined = confs[e][0] * w[0] + confs[e][1] * w[1] + confs[e][2] * w[2];
+            }
+            scores.add(runEC.formatScore(combined));
+        }
+        return scores;
+    }
+
+    /**
+     * Confidence of one method for one EC
+     */
+    private double confidence(Query query, String ecnum, String method, BlastScheduler.Plan plan) throws Exception {
+        String ROOTPATH = library.rootPath();
+        double prediction;
+        if (method.equals("spmap")) {
+            double[] vector = seq2vectPSSMtest.scoreSequence(predictBatchSPMAP.SIG_TH, predictBatchSPMAP.SUBSEQLEN, ecnum, query.windows(), ROOTPATH);
+            if (vector == null) {
+                throw new IOException("EC " + ecnum + " has no SPMAP profile");
+            }
+            prediction = SVMLightClassifier.predict(new double[][] {vector}, library.modelFile(ecnum, method))[0];
+        } else if (method.equals("blast")) {
+            List<String> ids = new ArrayList<>();
+            ids.add(query.id);
+            String blastOut = query.dir + File.separator + ecnum + ".blast.out";
+            HashMap<String, List<List<String>>> hits = predictBatchBLAST.searchHits(ecnum, ROOTPATH, ids, query.fasta, blastOut, plan);
+            prediction = Blast.blastknn(hits.get(query.id), library.positiveIds(ecnum), library.negativeIds(ecnum), predictBatchBLAST.KNN);
+        } else {
+            Vector<Vector<String>> vects = PepstatsFeatures.getVectors(ROOTPATH, query.fasta, query.dir);
+            prediction = SVMLightClassifier.predict(predictBatchPEPSTATS.toInstances(vects), SvmScaleRange.get(library.rangeFile(ecnum)),
+                library.modelFile(ecnum, method))[0];
+        }
+        return library.confidence(ecnum, method, prediction);
+    }
+}
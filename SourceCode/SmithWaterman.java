@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+/**
+ * In-JVM local alignment backend for the BLAST kNN method.
+ * Scores queries against an EC sequence library with Smith-Waterman
+ * (affine gaps, BLOSUM62, blastp default gap costs 11/1) and reports
+ * hits as bit scores in the layout of Blast.parseTabBlast.
+ */
+public class SmithWaterman {
+
+    // Residue order of the BLOSUM62 table below
+    private static final String ALPHABET = "ARNDCQEGHILKMFPSTWYVBZX*";
+    private static final byte[] CODE = new byte[128];
+
+    private static final int GAP_OPEN = 11;
+    private static final int GAP_EXTEND = 1;
+
+    // Gapped Karlin-Altschul parameters of BLOSUM62 with gap costs 11/1
+    private static final double LAMBDA = 0.267;
+    private static final double K = 0.041;
+    private static final double LN2 = Math.log(2.0);
+
+    // blastp reports at most this many subjects per query (-max_target_seqs)
+    private static final int MAX_TARGET_SEQS = 500;
+
+    // Candidates taken from the k-mer index when prefiltering
+    private static final int PREFILTER_CANDIDATES = ECPredConfig.getInt("kmer.candidates", 2000);
+
+    private static final int[][] BLOSUM62 = {
+        { 4,-1,-2,-2, 0,-1,-1, 0,-2,-1,-1,-1,-1,-2,-1, 1, 0,-3,-2, 0,-2,-1, 0,-4},
+        {-1, 5, 0,-2,-3, 1, 0,-2, 0,-3,-2, 2,-1,-3,-2,-1,-1,-3,-2,-3,-1, 0,-1,-4},
+        {-2, 0, 6, 1,-3, 0, 0, 0, 1,-3,-3, 0,-2,-3,-2, 1, 0,-4,-2,-3, 3, 0,-1,-4},
+        {-2,-2, 1, 6,-3, 0, 2,-1,-1,-3,-4,-1,-3,-3,-1, 0,-1,-4,-3,-3, 4, 1,-1,-4},
+        { 0,-3,-3,-3, 9,-3,-4,-3,-3,-1,-1,-3,-1,-2,-3,-1,-1,-2,-2,-1,-3,-3,-2,-4},
+        {-1, 1, 0, 0,-3, 5, 2,-2, 0,-3,-2, 1, 0,-3,-1, 0,-1,-2,-1,-2, 0, 3,-1,-4},
+        {-1, 0, 0, 2,-4, 2, 5,-2, 0,-3,-3, 1,-2,-3,-1, 0,-1,-3,-2,-2, 1, 4,-1,-4},
+        { 0,-2, 0,-1,-3,-2,-2, 6,-2,-4,-4,-2,-3,-3,-2, 0,-2,-2,-3,-3,-1,-2,-1,-4},
+        {-2, 0, 1,-1,-3, 0, 0,-2, 8,-3,-3,-1,-2,-1,-2,-1,-2,-2, 2,-3, 0, 0,-1,-4},
+        {-1,-3,-3,-3,-1,-3,-3,-4,-3, 4, 2,-3, 1, 0,-3,-2,-1,-3,-1, 3,-3,-3,-1,-4},
+        {-1,-2,-3,-4,-1,-2,-3,-4,-3, 2, 4,-2, 2, 0,-3,-2,-1,-2,-1, 1,-4,-3,-1,-4},
+        {-1, 2, 0,-1,-3, 1, 1,-2,-1,-3,-2, 5,-1,-3,-1, 0,-1,-3,-2,-2, 0, 1,-1,-4},
+        {-1,-1,-2,-3,-1, 0,-2,-3,-2, 1, 2,-1, 5, 0,-2,-1,-1,-1,-1, 1,-3,-1,-1,-4},
+        {-2,-3,-3,-3,-2,-3,-3,-3,-1, 0, 0,-3, 0, 6,-4,-2,-2, 1, 3,-1,-3,-3,-1,-4},
+        {-1,-2,-2,-1,-3,-1,-1,-2,-2,-3,-3,-1,-2,-4, 7,-1,-1,-4,-3,-2,-2,-1,-2,-4},
+        { 1,-1, 1, 0,-1, 0, 0, 0,-1,-2,-2, 0,-1,-2,-1, 4, 1,-3,-2,-2, 0, 0, 0,-4},
+        { 0,-1, 0,-1,-1,-1,-1,-2,-2,-1,-1,-1,-1,-2,-1, 1, 5,-2,-2, 0,-1,-1, 0,-4},
+        {-3,-3,-4,-4,-2,-2,-3,-2,-2,-3,-2,-3,-1, 1,-4,-3,-2,11, 2,-3,-4,-3,-2,-4},
+        {-2,-2,-2,-3,-2,-1,-2,-3, 2,-1,-1,-2,-1, 3,-3,-2,-2, 2, 7,-1,-3,-2,-1,-4},
+        { 0,-3,-3,-3,-1,-2,-2,-3,-3, 3, 1,-2, 1,-1,-2,-2, 0,-3,-1, 4,-3,-2,-1,-4},
+        {-2,-1, 3, 4,-3, 0, 1,-1, 0,-3,-4, 0,-3,-3,-2, 0,-1,-4,-3,-3, 4, 1,-1,-4},
+        {-1, 0, 0, 1,-3, 3, 4,-2, 0,-3,-3, 1,-1,-3,-1, 0,-1,-3,-2,-2, 1, 4,-1,-4},
+        { 0,-1,-1,-1,-2,-1,-1,-1,-1,-1,-1,-1,-1,-1,-2, 0, 0,-2,-1,-1,-1,-1,-1,-4},
+        {-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4,-4, 1}
+    };
+
+    static {
+        // Residues outside the table (J, O, U, ...) are scored as X
+        Arrays.fill(CODE, (byte) ALPHABET.indexOf('X'));
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            char c = ALPHABET.charAt(i);
+            CODE[c] = (byte) i;
+            CODE[Character.toLowerCase(c)] = (byte) i;
+        }
+    }
+
+    // Per-thread DP rows, grown on demand
+    private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[2][0]);
+
+    /**
+     * Encode a protein sequence as BLOSUM62 row indices
+     */
+    public static byte[] encode(String sequence) {
+        byte[] codes = new byte[sequence.length()];
+        for (int i = 0; i < codes.length; i++) {
+            char c = sequence.charAt(i);
+            codes[i] = c < 128 ? CODE[c] : CODE['X'];
+        }
+        return codes;
+    }
+
+    /**
+     * Query profile: score of every query position against every residue,
+     * so the inner loop reads one contiguous row per subject residue.
+     */
+    static int[][] profile(byte[] query) {
+        int[][] profile = new int[ALPHABET.length()][query.length];
+        for (int a = 0; a < ALPHABET.length(); a++) {
+            int[] row = BLOSUM62[a];
+            int[] prow = profile[a];
+            for (int i = 0; i < query.length; i++) {
+                prow[i] = row[query[i]];
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Best local alignment score (Gotoh, linear space)
+     */
+    static int score(int[][] profile, int queryLength, byte[] subject) {
+        int[][] rows = ROWS.get();
+        if (rows[0].length < queryLength) {
+            rows[0] = new int[queryLength];
+            rows[1] = new int[queryLength];
+        }
+        int[] H = rows[0];
+        int[] E = rows[1];
+        Arrays.fill(H, 0, queryLength, 0);
+        Arrays.fill(E, 0, queryLength, 0);
+
+        final int open = GAP_OPEN + GAP_EXTEND;
+        int best = 0;
+        for (byte s : subject) {
+            int[] p = profile[s];
+            int diag = 0;
+            int f = 0;
+            int up = 0;
+            for (int i = 0; i < queryLength; i++) {
+                int h = H[i];
+                int e = Math.max(E[i] - GAP_EXTEND, h - open);
+                E[i] = e;
+                f = Math.max(f - GAP_EXTEND, up - open);
+                int v = diag + p[i];
+                if (e > v) v = e;
+                if (f > v) v = f;
+                if (v < 0) v = 0;
+                diag = h;
+                H[i] = v;
+                up = v;
+                if (v > best) best = v;
+            }
+        }
+        return best;
+    }
+
+    public static double bitScore(int rawScore) {
+        return (LAMBDA * rawScore - Math.log(K)) / LN2;
+    }
+
+    public static double evalue(int rawScore, int queryLength, long dbResidues) {
+        return K * queryLength * (double) dbResidues * Math.exp(-LAMBDA * rawScore);
+    }
+
+    /**
+     * Align every query against the library, in blocks of targets on the
+     * given executor's scheduler (so every block runs on a core token).
+     * Returns queryID -> [[hitID, bitScore], ...] sorted by decreasing score,
+     * keeping hits up to the e-value cutoff, as Blast.parseTabBlast does.
+     * If index is not null, only the k-mer shortlist of each query is aligned.
+     */
+    public static HashMap<String, List<List<String>>> search(Map<String, String> queries, SequenceLibrary library, double evalueCutoff, ParallelExecutor executor, KmerIndex index)
+        throws IOException
+    {
+        HashMap<String, List<List<String>>> result = new HashMap<>();
+        for (Map.Entry<String, String> query : queries.entrySet()) {
+            List<List<String>> hits = searchOne(query.getValue(), library, evalueCutoff, executor, index);
+            if (!hits.isEmpty()) {
+                result.put(query.getKey(), hits);
+            }
+        }
+        return result;
+    }
+
+    static List<List<String>> searchOne(String sequence, SequenceLibrary library, double evalueCutoff, ParallelExecutor executor, KmerIndex index)
+        throws IOException
+    {
+        byte[] query = encode(sequence);
+        int[][] profile = profile(query);
+        int[] scores = new int[library.size()];
+        int[] targets = targets(sequence, library, index);
+        try {
+            executor.forEachBlock(targets.length, (from, to) -> {
+                for (int t = from; t < to; t++) {
+                    scores[targets[t]] = score(profile, query.length, library.sequences[targets[t]]);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Alignment interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Alignment failed", e.getCause());
+        }
+        return toHits(scores, library, query.length, evalueCutoff);
+    }
+
+    /**
+     * Library positions to align: all of them, or the library's own k-mer shortlist
+     */
+    private static int[] targets(String sequence, SequenceLibrary library, KmerIndex index) {
+        if (index == null) {
+            return IntStream.range(0, library.size()).toArray();
+        }
+        return index.shortlist(sequence, PREFILTER_CANDIDATES, library);
+    }
+
+    static List<List<String>> toHits(int[] scores, SequenceLibrary library, int queryLength, double evalueCutoff) {
+        List<Integer> kept = new ArrayList<>();
+        for (int j = 0; j < scores.length; j++) {
+            if (scores[j] > 0 && evalue(scores[j], queryLength, library.totalResidues) <= evalueCutoff) {
+                kept.add(j);
+            }
+        }
+        kept.sort((a, b) -> Integer.compare(scores[b], scores[a]));
+
+        List<List<String>> hits = new ArrayList<>();
+        for (int n = 0; n < kept.size() && n < MAX_TARGET_SEQS; n++) {
+            int j = kept.get(n);
+            List<String> hit = new ArrayList<>();
+            hit.add(library.ids[j]);
+            hit.add(String.format(Locale.ROOT, "%.1f", bitScore(scores[j])));
+            hits.add(hit);
+        }
+        return hits;
+    }
+}
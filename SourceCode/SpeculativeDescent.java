@@ -0,0 +1,257 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speculative subclass descent (-Decpred.speculate=N).
+ * During the main pass the scores of a main class are known as soon as that
+ * class is combined. For every protein, the first subclass level of its N
+ * leading main classes so far (among those above their thresholds) is
+ * predicted right away rather than after the whole main pass. Once the main
+ * class of a protein is known, its subclass walk takes the speculative level
+ * of that class and the other branches are cancelled: a branch that has not
+ * started never runs, one that has is counted as wasted work.
+ */
+public class SpeculativeDescent {
+
+    private static final int TOP = ECPredConfig.getInt("speculate", 0);
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    /**
+     * Speculative first subclass level of one main class for one protein
+     */
+    private static class Branch {
+        final String proteinKey;
+        final String mainClass;
+        final String dir;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        volatile long ms;
+        boolean used;
+        CompletableFuture<HashMap<String, Vector<Vector<String>>>> result;
+
+        Branch(String proteinKey, String mainClass, String dir) {
+            this.proteinKey = proteinKey;
+            this.mainClass = mainClass;
+            this.dir = dir;
+        }
+    }
+
+    private final String[] args;
+    private final String ROOTPATH;
+    private final String fastaFile;
+    private final long time;
+    private final String method;
+    private final String tempDir;
+    private final List<String> idlist;
+    private final int blastCores;
+    private final HashMap<String, Double> thresholds;
+
+    // Main-class scores per protein and class, NaN until the class is combined
+    private final double[][] scores;
+    // Live branches per protein, by main class
+    private final List<Map<String, Branch>> branches = new ArrayList<>();
+    private final List<Branch> all = new ArrayList<>();
+    // Branch of the predicted main class, per protein, once the main pass is done
+    private final Map<String, Branch> winners = new HashMap<>();
+    private int walks;
+    private boolean resolved;
+
+    public static boolean isEnabled() {
+        return TOP > 0;
+    }
+
+    public SpeculativeDescent(String[] args, String ROOTPATH, String fastaFile, long time, String method, String tempDir,
+        List<String> idlist, int cores) throws IOException
+    {
+        this.args = args;
+        this.ROOTPATH = ROOTPATH;
+        this.fastaFile = fastaFile;
+        this.time = time;
+        this.method = method;
+        this.tempDir = tempDir;
+        this.idlist = idlist;
+        // Branches of all proteins may run at once, as the subclass walks do
+        this.blastCores = Math.max(1, cores / Math.max(1, Math.min(cores, idlist.size())));
+        this.thresholds = new runEC().loadThresholds(ROOTPATH);
+        this.scores = new double[idlist.size()][6];
+        for (int p = 0; p < idlist.size(); p++) {
+            Arrays.fill(scores[p], Double.NaN);
+            branches.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Scores of one main-class EC of the main pass, in idlist order
+     */
+    public synchronized void scored(String ecnum, Vector<String> ecScores) {
+        int c = mainClassIndex(ecnum);
+        if (resolved || c < 0 || ecScores.size() != idlist.size()) {
+            return;
+        }
+        for (int p = 0; p < idlist.size(); p++) {
+            scores[p][c] = Double.parseDouble(ecScores.get(p));
+            update(p);
+        }
+    }
+
+    private static int mainClassIndex(String ecnum) {
+        if (!ecnum.endsWith(".-.-.-")) {
+            return -1;
+        }
+        try {
+            int c = Integer.parseInt(ecnum.substring(0, ecnum.indexOf('.'))) - 1;
+            return c >= 0 && c < 6 ? c : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Start the branches of the leading classes of protein p and cancel the
+     * pending ones that no longer lead
+     */
+    private void update(int p) {
+        List<String> leading = leading(p);
+        Iterator<Branch> it = branches.get(p).values().iterator();
+        while (it.hasNext()) {
+            Branch branch = it.next();
+            if (!leading.contains(branch.mainClass) && branch.state.compareAndSet(PENDING, CANCELLED)) {
+                it.remove();
+            }
+        }
+        for (String mainClass : leading) {
+            if (!branches.get(p).containsKey(mainClass)) {
+                branches.get(p).put(mainClass, start(idlist.get(p), mainClass));
+            }
+        }
+    }
+
+    /**
+     * Up to TOP scored classes of protein p that pass their thresholds, best
+     * first; ties go to the lower class, as in the main-class decision
+     */
+    private List<String> leading(int p) {
+        List<Integer> classes = new ArrayList<>();
+        for (int c = 0; c < 6; c++) {
+            double score = scores[p][c];
+            Double threshold = thresholds.get((c + 1) + ".-.-.-");
+            if (!Double.isNaN(score) && score >= runEC.NON_ENZYME_THRESHOLD && threshold != null && score >= threshold) {
+                classes.add(c);
+            }
+        }
+        classes.sort((a, b) -> scores[p][a] != scores[p][b] ? Double.compare(scores[p][b], scores[p][a]) : Integer.compare(a, b));
+        List<String> leading = new ArrayList<>();
+        for (int i = 0; i < Math.min(TOP, classes.size()); i++) {
+            leading.add((classes.get(i) + 1) + ".-.-.-");
+        }
+        return leading;
+    }
+
+    private Branch start(String proteinKey, String mainClass) {
+        Branch branch = new Branch(proteinKey, mainClass, tempDir + File.separator + "testResult" + File.separator + time + "_" + proteinKey.hashCode()
+            + "_" + mainClass.charAt(0));
+        all.add(branch);
+        branch.result = ParallelExecutor.getInstance().submitProteinTask(() -> {
+            if (!branch.state.compareAndSet(PENDING, RUNNING)) {
+                throw new CancellationException("Speculative branch " + mainClass + " of " + proteinKey + " was cancelled");
+            }
+            long start = System.currentTimeMillis();
+            try {
+                return ECPred.predictChildren(args, ROOTPATH, fastaFile, time, method, proteinKey, mainClass, branch.dir, blastCores, new runEC());
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                branch.ms = System.currentTimeMillis() - start;
+                branch.state.set(DONE);
+            }
+        });
+        return branch;
+    }
+
+    /**
+     * Keep the branch of each protein's predicted main class and cancel the
+     * others; called once the main pass is done
+     */
+    public synchronized void resolve(Map<String, Vector<Vector<String>>> predictions) {
+        resolved = true;
+        for (int p = 0; p < idlist.size(); p++) {
+            String proteinKey = idlist.get(p);
+            String mainClass = predictions.containsKey(proteinKey) ? predictions.get(proteinKey).get(0).get(0) : "nop";
+            if (!mainClass.equals("non") && !mainClass.equals("nop")) {
+                walks++;
+            }
+            for (Branch branch : branches.get(p).values()) {
+                if (branch.mainClass.equals(mainClass)) {
+                    winners.put(proteinKey, branch);
+                } else {
+                    branch.state.compareAndSet(PENDING, CANCELLED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Speculative first level of the walk of proteinKey under mainClass, or
+     * null if there is none
+     */
+    public synchronized CompletableFuture<HashMap<String, Vector<Vector<String>>>> take(String proteinKey, String mainClass) {
+        Branch branch = winners.remove(proteinKey);
+        if (branch == null || !branch.mainClass.equals(mainClass)) {
+            return null;
+        }
+        branch.used = true;
+        return branch.result;
+    }
+
+    /**
+     * Wait for branches still running, print how much speculative work was
+     * used and wasted, and remove the branch directories. Called once every
+     * subclass walk is done: a branch that was still running may have
+     * cached hits and features of a protein whose walk already evicted
+     * them, so those are evicted again here.
+     */
+    public void report(Map<String, String> protSeqs) {
+        List<Branch> branches;
+        synchronized (this) {
+            branches = new ArrayList<>(all);
+        }
+        for (Branch branch : branches) {
+            branch.result.handle((r, e) -> null).join();
+        }
+        int ran = 0, used = 0, cancelled = 0;
+        long usedMs = 0, wastedMs = 0;
+        for (Branch branch : branches) {
+            if (branch.state.get() == CANCELLED) {
+                cancelled++;
+                continue;
+            }
+            ran++;
+            if (branch.used) {
+                used++;
+                usedMs += branch.ms;
+            } else {
+                wastedMs += branch.ms;
+            }
+            ECPred.deleteDirectory(new File(branch.dir));
+            BlastHitCache.evict(branch.proteinKey);
+            PepstatsFeatures.evict(protSeqs.get(branch.proteinKey));
+        }
+        System.out.println("[TIMER] Speculative descent: " + used + " of " + walks + " subclass walks started early; "
+            + ran + " branches run, " + (ran - used) + " wasted (" + wastedMs + " ms wasted, " + usedMs + " ms used), "
+            + cancelled + " cancelled before running");
+    }
+}
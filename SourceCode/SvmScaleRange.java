@@ -0,0 +1,157 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-JVM equivalent of "svm-scale -r rangefile" (libsvm 3.16).
+ * A range file is parsed once into per-feature min/max arrays; instances are
+ * then scaled straight into the sparse buffers the SVM classifier reads.
+ */
+public class SvmScaleRange {
+
+    // Range files are shared by all EC tasks of a run (thread-safe)
+    private static final Map<String, SvmScaleRange> rangeCache = new ConcurrentHashMap<>();
+
+    // svm-scale prints scaled values with %g
+    private static final MathContext PRINT_PRECISION = new MathContext(6, RoundingMode.HALF_EVEN);
+
+    private final double lower;
+    private final double upper;
+    // Indexed by feature number; NaN for features the range file does not list
+    private final double[] featureMin;
+    private final double[] featureMax;
+
+    private SvmScaleRange(double lower, double upper, double[] featureMin, double[] featureMax) {
+        this.lower = lower;
+        this.upper = upper;
+        this.featureMin = featureMin;
+        this.featureMax = featureMax;
+    }
+
+    /**
+     * Get the range of a range file, parsing it on first use
+     */
+    public static SvmScaleRange get(String rangefile) throws IOException {
+        SvmScaleRange range = rangeCache.get(rangefile);
+        if (range == null) {
+            range = load(rangefile);
+            rangeCache.putIfAbsent(rangefile, range);
+            range = rangeCache.get(rangefile);
+        }
+        return range;
+    }
+
+    private static SvmScaleRange load(String rangefile) throws IOException {
+        double[] min = new double[1];
+        double[] max = new double[1];
+        int maxIndex = 0;
+        double lower;
+        double upper;
+        try (BufferedReader br = new BufferedReader(new FileReader(rangefile))) {
+            String line = br.readLine();
+            if (line != null && line.trim().equals("y")) {
+                // Label scaling is not used for prediction
+                br.readLine();
+                br.readLine();
+                line = br.readLine();
+            }
+            if (line == null || !line.trim().equals("x")) {
+                throw new IOException("Not an svm-scale range file: " + rangefile);
+            }
+            StringTokenizer st = new StringTokenizer(br.readLine());
+            lower = Double.parseDouble(st.nextToken());
+            upper = Double.parseDouble(st.nextToken());
+
+            Arrays.fill(min, Double.NaN);
+            Arrays.fill(max, Double.NaN);
+            while ((line = br.readLine()) != null) {
+                st = new StringTokenizer(line);
+                if (st.countTokens() < 3) {
+                    continue;
+                }
+                int index = Integer.parseInt(st.nextToken());
+                if (index >= min.length) {
+                    int old = min.length;
+                    int size = Math.max(index + 1, 2 * old);
+                    min = Arrays.copyOf(min, size);
+                    max = Arrays.copyOf(max, size);
+                    Arrays.fill(min, old, size, Double.NaN);
+                    Arrays.fill(max, old, size, Double.NaN);
+                }
+                min[index] = Double.parseDouble(st.nextToken());
+                max[index] = Double.parseDouble(st.nextToken());
+                maxIndex = Math.max(maxIndex, index);
+            }
+        }
+        return new SvmScaleRange(lower, upper, Arrays.copyOf(min, maxIndex + 1), Arrays.copyOf(max, maxIndex + 1));
+    }
+
+    /**
+     * Feature min/max used to scale a batch of dense instances (instance[j] is
+     * feature j + 1). As in svm-scale, features missing from the range file
+     * take their min/max from the batch itself, absent values counting as 0.
+     * Returns {min, max}, indexed by feature number.
+     */
+    public double[][] limits(double[][] instances) {
+        int maxIndex = featureMin.length - 1;
+        for (double[] instance : instances) {
+            maxIndex = Math.max(maxIndex, instance.length);
+        }
+        double[] min = new double[maxIndex + 1];
+        double[] max = new double[maxIndex + 1];
+        for (int index = 1; index <= maxIndex; index++) {
+            if (index < featureMin.length && !Double.isNaN(featureMin[index])) {
+                min[index] = featureMin[index];
+                max[index] = featureMax[index];
+                continue;
+            }
+            double lo = Double.MAX_VALUE;
+            double hi = -Double.MAX_VALUE;
+            for (double[] instance : instances) {
+                double value = index <= instance.length ? instance[index - 1] : 0.0;
+                lo = Math.min(lo, value);
+                hi = Math.max(hi, value);
+            }
+            min[index] = lo;
+            max[index] = hi;
+        }
+        return new double[][] {min, max};
+    }
+
+    /**
+     * Scale one instance into the sparse buffers indices/values (which must
+     * hold limits[0].length entries) and return the number of features.
+     * Single-valued features and zero results are dropped, as svm-scale does.
+     */
+    public int scale(double[] instance, double[][] limits, int[] indices, double[] values) {
+        double[] min = limits[0];
+        double[] max = limits[1];
+        int n = 0;
+        for (int index = 1; index < min.length; index++) {
+            if (min[index] == max[index]) {
+                continue;
+            }
+            double value = index <= instance.length ? instance[index - 1] : 0.0;
+            if (value == min[index]) {
+                value = lower;
+            } else if (value == max[index]) {
+                value = upper;
+            } else {
+                value = lower + (upper - lower) * (value - min[index]) / (max[index] - min[index]);
+            }
+            if (value != 0) {
+                indices[n] = index;
+                values[n] = new BigDecimal(value).round(PRINT_PRECISION).doubleValue();
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -74,6 +74,12 @@ public class fasta2Pepstats_noscale
   
   public static void parse_pepstats(String infile, String ECNumber, String type, long time, String ROOTPATH, String tempDir)
     throws IOException, InterruptedException
+  {
+    print_vector(ECNumber, read_pepstats(infile), type, time, ROOTPATH, tempDir);
+  }
+  
+  public static Vector<Vector<String>> read_pepstats(String infile)
+    throws IOException
   {
     BufferedReader br = new BufferedReader(new FileReader(infile));
     
@@ -111,7 +117,8 @@ public class fasta2Pepstats_noscale
         count = 0;
       }
     }
-    print_vector(ECNumber, vects, type, time, ROOTPATH, tempDir);
+    br.close();
+    return vects;
   }
   
   public static Vector<String> allFasta(String ECNumber, String type)
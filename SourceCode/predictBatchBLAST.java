@@ -22,6 +22,10 @@ import java.util.ArrayList;
 	
 	public class predictBatchBLAST
 	{
+	  // Nearest hits voting, and e-value cutoff of the searches
+	  static final int KNN = 5;
+	  static final int EVALUE = 20;
+	  
 	  public static HashMap<String, String> getFasta(String path)
 	    throws IOException
 	  {
@@ -54,14 +58,11 @@ import java.util.ArrayList;
 	    return fasta_dict;
 	  }
 	  
-  public static void main(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> test_ids, String fastaFile, String tempDir, int blastThreads)
+  public static void main(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> test_ids, String fastaFile, String tempDir, int blastCores)
     throws IOException, InterruptedException
   {
-    int k = 5;
-    int evalue = 20;
-    
-    String method = "blast";
-    HashMap<String, String> fasta_dict = new HashMap<>();
+    // Split the core budget between the concurrent EC searches
+    BlastScheduler.Plan plan = BlastScheduler.plan(ecnums.size(), fastaFile, blastCores);
     
     // Parallelize EC processing
     ParallelExecutor executor = ParallelExecutor.getInstance();
@@ -73,96 +74,7 @@ import java.util.ArrayList;
       final String ecnum = ecnums.get(ecIndex);
       
       ecTasks.add(() -> {
-        try {
-          HashMap<String, List<List<String>>> simHashHash = new HashMap<>();
-          
-          String path = ROOTPATH + File.separator + ecnum + File.separator + method;
-          String testpath = tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum + File.separator + method;
-          
-          File workdir = new File(testpath);
-          workdir.mkdirs();
-          List<String> pos = Files.readAllLines(Paths.get(ROOTPATH + File.separator + ecnum + "/positive.ids", new String[0]));
-          List<String> neg = Files.readAllLines(Paths.get(ROOTPATH + File.separator + ecnum + "/negative.ids", new String[0]));
-          String predFile = workdir + File.separator + ecnum + ".preds";
-          String confFile = workdir + File.separator + ecnum + ".confs";
-          
-          String posPredFile = path + File.separator + "ppreds.txt";
-          String negPredFile = path + File.separator + "npreds.txt";
-          
-          String[] cmdArray = new String[11];
-          
-          cmdArray[0] = (ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/ncbi-blast-2.7.1+/bin/blastp");
-          
-          cmdArray[1] = "-query";
-          
-          cmdArray[2] = fastaFile;
-          
-          cmdArray[3] = "-db";
-          
-          cmdArray[4] = (ROOTPATH + "/" + ecnum + File.separator + "blast" + File.separator + ecnum + ".blastdb");
-          
-          cmdArray[5] = "-outfmt";
-          
-          cmdArray[6] = "6";
-          
-          cmdArray[7] = "-out";
-          
-          cmdArray[8] = (workdir + File.separator + "blast.out");
-          
-          cmdArray[9] = "-evalue";
-          
-          cmdArray[10] = String.valueOf(evalue);
-          
-          String cmd = ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/ncbi-blast-2.7.1+/bin/blastp -query " + fastaFile + " -db " + 
-            ROOTPATH + "/" + ecnum + File.separator + "blast" + File.separator + ecnum + ".blastdb" + 
-            " -outfmt 6 -out " + workdir + File.separator + "blast.out -evalue " + String.valueOf(evalue) +
-            " -num_threads " + blastThreads;
-          ProcessBuilder pb = new ProcessBuilder(cmd.split(" "));
-          
-          Process process = pb.start();
-          try
-          {
-            process.waitFor();
-            int exitVal = process.exitValue();
-          }
-          catch (InterruptedException e)
-          {
-            System.out.print("blastp is not working!");
-            e.printStackTrace();
-          }
-          Blast blast = new Blast();
-          Vector<Double> preds = new Vector<>();
-          
-          List<String> blastLines = Files.readAllLines(Paths.get(cmdArray[8], new String[0]));
-          if (blastLines.size() == 0)
-          {
-            // Add 0.0 prediction for each test protein when BLAST has no hits
-            for (int m = 0; m < test_ids.size(); m++) {
-              preds.add(Double.valueOf(0.0D));
-            }
-          }
-          else
-          {
-            simHashHash = Blast.parseTabBlast(cmdArray[8]);
-            preds = new Vector<>();
-            for (int m = 0; m < test_ids.size(); m++)
-            {
-              double pred = Blast.blastknn(simHashHash.get(test_ids.get(m)), pos, neg, k);
-              preds.add(Double.valueOf(pred));
-            }
-          }
-          PrintWriter final_file = new PrintWriter(predFile, "UTF-8");
-          for (int a = 0; a < preds.size(); a++) {
-            final_file.println(preds.get(a));
-          }
-          final_file.close();
-          
-          utils u = new utils();
-          utils.calculateConfidence(posPredFile, negPredFile, predFile, confFile);
-        } catch (Exception e) {
-          System.err.println("Error processing EC " + ecnum + " in BLAST: " + e.getMessage());
-          e.printStackTrace();
-        }
+        predictEC(ecnum, time, ROOTPATH, test_ids, fastaFile, tempDir, plan);
         return null;
       });
     }
@@ -175,4 +87,123 @@ import java.util.ArrayList;
       throw new IOException("Parallel BLAST execution failed", e);
     }
   }
-}
\ No newline at end of file
+  
+  /**
+   * BLAST kNN predictions and confidences of one EC (ecnum.preds/.confs);
+   * plan comes from BlastScheduler.plan for all ECs searched together
+   */
+  static void predictEC(String ecnum, long time, String ROOTPATH, List<String> test_ids, String fastaFile, String tempDir, BlastScheduler.Plan plan)
+  {
+    int k = KNN;
+    String method = "blast";
+    
+    try {
+      HashMap<String, List<List<String>>> simHashHash = new HashMap<>();
+      
+      String path = ROOTPATH + File.separator + ecnum + File.separator + method;
+      String testpath = tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum + File.separator + method;
+      
+      File workdir = new File(testpath);
+      workdir.mkdirs();
+      List<String> pos = Files.readAllLines(Paths.get(ROOTPATH + File.separator + ecnum + "/positive.ids", new String[0]));
+      List<String> neg = Files.readAllLines(Paths.get(ROOTPATH + File.separator + ecnum + "/negative.ids", new String[0]));
+      String predFile = workdir + File.separator + ecnum + ".preds";
+      String confFile = workdir + File.separator + ecnum + ".confs";
+      
+      String posPredFile = path + File.separator + "ppreds.txt";
+      String negPredFile = path + File.separator + "npreds.txt";
+      
+      String blastOut = workdir + File.separator + "blast.out";
+      simHashHash = searchHits(ecnum, ROOTPATH, test_ids, fastaFile, blastOut, plan);
+      
+      // Proteins without hits get a 0.0 prediction
+      Vector<Double> preds = new Vector<>();
+      for (int m = 0; m < test_ids.size(); m++)
+      {
+        double pred = Blast.blastknn(simHashHash.get(test_ids.get(m)), pos, neg, k);
+        preds.add(Double.valueOf(pred));
+      }
+      PrintWriter final_file = new PrintWriter(predFile, "UTF-8");
+      for (int a = 0; a < preds.size(); a++) {
+        final_file.println(preds.get(a));
+      }
+      final_file.close();
+      
+      utils u = new utils();
+      utils.calculateConfidence(posPredFile, negPredFile, predFile, confFile);
+    } catch (Exception e) {
+      System.err.println("Error processing EC " + ecnum + " in BLAST: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Hits of the test proteins of fastaFile in the database of one EC, by
+   * protein id: from the hit cache, the in-JVM aligner or blastp (which
+   * writes blastOut)
+   */
+  static HashMap<String, List<List<String>>> searchHits(String ecnum, String ROOTPATH, List<String> test_ids, String fastaFile, String blastOut,
+    BlastScheduler.Plan plan) throws IOException, InterruptedException
+  {
+    // Reuse hits of already searched databases that cover this EC
+    HashMap<String, List<List<String>>> cached = lookupCachedHits(ROOTPATH, ecnum, test_ids, KNN);
+    if (cached != null) {
+      return cached;
+    }
+    HashMap<String, List<List<String>>> simHashHash = new HashMap<>();
+    String blastp = blastpPath(ROOTPATH);
+    if (useJavaBackend()) {
+      SequenceLibrary library = SequenceLibrary.get(ROOTPATH, ecnum);
+      KmerIndex index = ECPredConfig.getBoolean("kmer.prefilter", false) ? KmerIndex.open(ROOTPATH) : null;
+      simHashHash = SmithWaterman.search(SequenceLibrary.readFasta(fastaFile), library, EVALUE, ParallelExecutor.getInstance(), index);
+    } else {
+      if (!new File(blastp).exists()) {
+        throw new IOException("blastp not found at " + blastp + "; install BLAST+ there or run with -Decpred.blast.backend=java");
+      }
+      String blastdb = ROOTPATH + "/" + ecnum + File.separator + "blast" + File.separator + ecnum + ".blastdb";
+      BlastScheduler.run(blastp, fastaFile, blastdb, blastOut, EVALUE, plan, ecnum);
+      List<String> blastLines = Files.readAllLines(Paths.get(blastOut, new String[0]));
+      if (blastLines.size() > 0) {
+        simHashHash = Blast.parseTabBlast(blastOut);
+      }
+    }
+    BlastHitCache.record(ROOTPATH, ecnum, test_ids, simHashHash);
+    return simHashHash;
+  }
+
+  static String blastpPath(String ROOTPATH)
+  {
+    return ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/ncbi-blast-2.7.1+/bin/blastp";
+  }
+
+  /**
+   * Hits of all test proteins rebuilt from the hit cache, or null if any of
+   * them needs a new search.
+   */
+  private static HashMap<String, List<List<String>>> lookupCachedHits(String ROOTPATH, String ecnum, List<String> test_ids, int k)
+    throws IOException
+  {
+    if (!BlastHitCache.isEnabled()) {
+      return null;
+    }
+    HashMap<String, List<List<String>>> cached = new HashMap<>();
+    for (String id : test_ids) {
+      List<List<String>> hits = BlastHitCache.lookup(ROOTPATH, id, ecnum, k);
+      if (hits == null) {
+        return null;
+      }
+      cached.put(id, hits);
+    }
+    return cached;
+  }
+
+  /**
+   * Use the in-JVM aligner only when asked to (-Decpred.blast.backend=java):
+   * its scores are not blastp's, while the confidences are calibrated on
+   * blastp predictions
+   */
+  static boolean useJavaBackend()
+  {
+    return ECPredConfig.getString("blast.backend", "blastp").equals("java");
+  }
+}
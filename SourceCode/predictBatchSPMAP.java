@@ -11,12 +11,14 @@ import java.util.concurrent.ExecutionException;
 
 public class predictBatchSPMAP {
 
+	static final int SIG_TH = -15;
+	static final int SUBSEQLEN = 5;
+
 	public static void main(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> test_ids, String fastaFile, String tempDir)
 		    throws IOException, InterruptedException
 		  {
-		    int sigTh = -15;
-		    int subseqlen = 5;
-		    String method = "spmap";
+		    // Score all ECs in one pass over the sequences, then classify per EC
+		    calculateVectors(ecnums, time, ROOTPATH, test_ids, fastaFile, tempDir);
 		    
 		    // Parallelize EC processing
 		    ParallelExecutor executor = ParallelExecutor.getInstance();
@@ -28,44 +30,7 @@ public class predictBatchSPMAP {
 		      final String ecnum = ecnums.get(ecIndex);
 		      
 		      ecTasks.add(() -> {
-		        try {
-		          File workdir = new File(tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum);
-		          workdir.mkdirs();
-		          String path = ROOTPATH + File.separator + ecnum + File.separator + method;
-		          String testpath = workdir + File.separator + method;
-		          String modelfile = path + File.separator + "model.svm";
-		          
-		          workdir = new File(testpath);
-		          workdir.mkdirs();
-		          
-		          String predFile = testpath + File.separator + ecnum + ".preds";
-		          String confFile = testpath + File.separator + ecnum + ".confs";
-		          String batchVect = testpath + File.separator + "test.vec";
-		          
-		          String posPredFile = path + File.separator + "ppreds.txt";
-		          String negPredFile = path + File.separator + "npreds.txt";
-		          
-		          seq2vectPSSMtest.calculateVectors(sigTh, subseqlen, ecnum, test_ids, fastaFile, time, ROOTPATH, tempDir);
-		          
-		          Path batchVectPath = Paths.get(batchVect);
-		          if (Files.notExists(batchVectPath) || Files.size(batchVectPath) == 0) {
-		            System.err.println("Warning: Skipping SPMAP classification for EC " + ecnum + " due to empty feature vector file.");
-		            return null;
-		          }
-		          
-		          // Use in-JVM SVM classifier instead of external process
-		          SVMLightClassifier.classify(batchVect, modelfile, predFile);
-		          
-		          Path predictionPath = Paths.get(predFile);
-		          if (Files.exists(predictionPath) && Files.size(predictionPath) > 0) {
-		            utils.calculateConfidence(posPredFile, negPredFile, predFile, confFile);
-		          } else {
-		            System.err.println("Warning: Missing prediction output for EC " + ecnum + ", skipping confidence calculation.");
-		          }
-		        } catch (Exception e) {
-		          System.err.println("Error processing EC " + ecnum + " in SPMAP: " + e.getMessage());
-		          e.printStackTrace();
-		        }
+		        predictEC(ecnum, time, ROOTPATH, tempDir);
 		        return null;
 		      });
 		    }
@@ -78,4 +43,57 @@ public class predictBatchSPMAP {
 		      throw new IOException("Parallel SPMAP execution failed", e);
 		    }
 	}
-}
\ No newline at end of file
+
+	/**
+	 * SPMAP feature vectors (test.vec) of all given ECs, in one pass over the sequences
+	 */
+	static void calculateVectors(Vector<String> ecnums, long time, String ROOTPATH, List<String> test_ids, String fastaFile, String tempDir)
+		    throws IOException, InterruptedException
+		  {
+		    seq2vectPSSMtest.calculateVectors(SIG_TH, SUBSEQLEN, ecnums, test_ids, fastaFile, time, ROOTPATH, tempDir);
+	}
+
+	/**
+	 * SVM predictions and confidences of one EC from its test.vec
+	 */
+	static void predictEC(String ecnum, long time, String ROOTPATH, String tempDir)
+		  {
+		    String method = "spmap";
+		    try {
+		      File workdir = new File(tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum);
+		      workdir.mkdirs();
+		      String path = ROOTPATH + File.separator + ecnum + File.separator + method;
+		      String testpath = workdir + File.separator + method;
+		      String modelfile = path + File.separator + "model.svm";
+		      
+		      workdir = new File(testpath);
+		      workdir.mkdirs();
+		      
+		      String predFile = testpath + File.separator + ecnum + ".preds";
+		      String confFile = testpath + File.separator + ecnum + ".confs";
+		      String batchVect = testpath + File.separator + "test.vec";
+		      
+		      String posPredFile = path + File.separator + "ppreds.txt";
+		      String negPredFile = path + File.separator + "npreds.txt";
+		      
+		      Path batchVectPath = Paths.get(batchVect);
+		      if (Files.notExists(batchVectPath) || Files.size(batchVectPath) == 0) {
+		        System.err.println("Warning: Skipping SPMAP classification for EC " + ecnum + " due to empty feature vector file.");
+		        return;
+		      }
+		      
+		      // Use in-JVM SVM classifier instead of external process
+		      SVMLightClassifier.classify(batchVect, modelfile, predFile);
+		      
+		      Path predictionPath = Paths.get(predFile);
+		      if (Files.exists(predictionPath) && Files.size(predictionPath) > 0) {
+		        utils.calculateConfidence(posPredFile, negPredFile, predFile, confFile);
+		      } else {
+		        System.err.println("Warning: Missing prediction output for EC " + ecnum + ", skipping confidence calculation.");
+		      }
+		    } catch (Exception e) {
+		      System.err.println("Error processing EC " + ecnum + " in SPMAP: " + e.getMessage());
+		      e.printStackTrace();
+		    }
+	}
+}
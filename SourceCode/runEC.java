@@ -21,23 +21,53 @@ import java.util.Vector;
 import java.util.concurrent.*;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public class runEC {
 
 	private static final String[] METHODS = {"blast", "spmap", "pepstats"};
-	private static final double NON_ENZYME_THRESHOLD = 0.4;
+	static final double NON_ENZYME_THRESHOLD = 0.4;
 
-	public HashMap<String, Vector<Vector<String>>> predictions(String[] args, String ROOTPATH, Vector<String> ecnums, long time, HashMap<String, Vector<Vector<String>>> predictions, List<String> idlist, String fastaFile, String tempDir, String method, int blastThreads) throws IOException, InterruptedException { 
+	// Called with the rounded scores of each EC as soon as the EC is combined
+	private volatile BiConsumer<String, Vector<String>> combineListener;
+
+	/**
+	 * Listen for the scores of each combined EC; null stops listening
+	 */
+	public void setCombineListener(BiConsumer<String, Vector<String>> listener) {
+		combineListener = listener;
+	}
+
+	public HashMap<String, Vector<Vector<String>>> predictions(String[] args, String ROOTPATH, Vector<String> ecnums, long time, HashMap<String, Vector<Vector<String>>> predictions, List<String> idlist, String fastaFile, String tempDir, String method, int blastCores) throws IOException, InterruptedException { 
 		
-		// Run predictions based on method
-		runPredictionMethods(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, method, blastThreads);
+		if (method.equals("weighted")) {
+			// Methods run per EC and each EC is combined as soon as its three confidences exist
+			runWeightedPipeline(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, blastCores);
+		} else {
+			// Run predictions based on method
+			runPredictionMethods(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, method, blastCores);
+			combinePredictions(ecnums, time, ROOTPATH, idlist, tempDir, method);
+		}
 		
 		// Load thresholds
 		HashMap<String, Double> thresholds = loadThresholds(ROOTPATH);
 		
+		// Process main class or subclass predictions
+		if (ecnums.contains("1.-.-.-")) {
+			processMainClassPredictions(ecnums, tempDir, time, ROOTPATH, idlist, thresholds, predictions);
+		} else {
+			processSubclassPredictions(ecnums, tempDir, time, thresholds, predictions, idlist);
+		}
+		
+		return predictions;
+	}
+
+	/**
+	 * Combine the method confidences of every EC into its _preds.txt
+	 */
+	private void combinePredictions(Vector<String> ecnums, long time, String ROOTPATH, List<String> idlist, String tempDir, String method) throws IOException, InterruptedException {
 		// Process results for each EC number in parallel
 		ParallelExecutor executor = ParallelExecutor.getInstance();
-		List<Callable<Void>> ecTasks = new ArrayList<>();
 		
 		// Dynamic batch sizing based on CPU count and EC count
 		// For small EC counts, process individually; for large counts, use batching
@@ -53,16 +83,7 @@ public class runEC {
 		for (List<String> batch : ecBatches) {
 			ecBatchTasks.add(() -> {
 				for (String ecnum : batch) {
-					try {
-						String testDir = tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum + File.separator + "preds";
-						createTestDirectory(testDir);
-						
-						Vector<String> combined = loadAndCombinePredictions(method, tempDir, time, ecnum, ROOTPATH, idlist);
-						writePredictionFile(combined, tempDir, time, ecnum, idlist);
-					} catch (Exception e) {
-						System.err.println("Error processing EC number " + ecnum + ": " + e.getMessage());
-						e.printStackTrace();
-					}
+					combineEC(ecnum, time, ROOTPATH, idlist, tempDir, method);
 				}
 				return null;
 			});
@@ -75,60 +96,86 @@ public class runEC {
 			System.err.println("Error executing parallel EC batch processing: " + e.getMessage());
 			throw new IOException("Parallel EC batch execution failed", e);
 		}
+	}
+
+	/**
+	 * Combine the method confidences of one EC into its _preds.txt
+	 */
+	private void combineEC(String ecnum, long time, String ROOTPATH, List<String> idlist, String tempDir, String method) {
+		try {
+			String testDir = tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum + File.separator + "preds";
+			createTestDirectory(testDir);
+			
+			Vector<String> combined = loadAndCombinePredictions(method, tempDir, time, ecnum, ROOTPATH, idlist);
+			Vector<String> scores = writePredictionFile(combined, tempDir, time, ecnum, idlist);
+			BiConsumer<String, Vector<String>> listener = combineListener;
+			if (listener != null) {
+				listener.accept(ecnum, scores);
+			}
+		} catch (Exception e) {
+			System.err.println("Error processing EC number " + ecnum + ": " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Weighted mode without a barrier between methods: every EC runs its BLAST,
+	 * SPMAP and PEPSTATS predictions as three tasks and is combined once they
+	 * are done. SPMAP vectors of all ECs are still scored in one shared pass,
+	 * which the SPMAP task of each EC waits for.
+	 */
+	private void runWeightedPipeline(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> idlist, String fastaFile, String tempDir, int blastCores) throws IOException, InterruptedException {
+		ParallelExecutor executor = ParallelExecutor.getInstance();
+		BlastScheduler.Plan plan = BlastScheduler.plan(ecnums.size(), fastaFile, blastCores);
+		ForkJoinTask<Void> spmapVectors = executor.fork(() -> {
+			predictBatchSPMAP.calculateVectors(ecnums, time, ROOTPATH, idlist, fastaFile, tempDir);
+			return null;
+		});
 		
-		// Process main class or subclass predictions
-		if (ecnums.contains("1.-.-.-")) {
-			processMainClassPredictions(ecnums, tempDir, time, ROOTPATH, idlist, thresholds, predictions);
-		} else {
-			processSubclassPredictions(ecnums, tempDir, time, thresholds, predictions, idlist);
+		List<Callable<Void>> ecTasks = new ArrayList<>();
+		for (String ecnum : ecnums) {
+			ecTasks.add(() -> {
+				List<Callable<Void>> methodTasks = new ArrayList<>();
+				methodTasks.add(() -> {
+					predictBatchBLAST.predictEC(ecnum, time, ROOTPATH, idlist, fastaFile, tempDir, plan);
+					return null;
+				});
+				methodTasks.add(() -> {
+					executor.join(spmapVectors);
+					predictBatchSPMAP.predictEC(ecnum, time, ROOTPATH, tempDir);
+					return null;
+				});
+				methodTasks.add(() -> {
+					predictBatchPEPSTATS.predictEC(ecnum, time, ROOTPATH, fastaFile, tempDir);
+					return null;
+				});
+				executor.executeMethodLevel(methodTasks);
+				combineEC(ecnum, time, ROOTPATH, idlist, tempDir, "weighted");
+				return null;
+			});
 		}
 		
-		return predictions;
+		try {
+			executor.executeECClassLevel(ecTasks);
+			executor.join(spmapVectors);
+		} catch (ExecutionException e) {
+			System.err.println("Error in weighted method prediction: " + e.getMessage());
+			e.printStackTrace();
+			throw new IOException("Weighted method execution failed", e);
+		}
 	}
 
-	private void runPredictionMethods(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> idlist, String fastaFile, String tempDir, String method, int blastThreads) throws IOException, InterruptedException {
+	private void runPredictionMethods(String[] args, Vector<String> ecnums, long time, String ROOTPATH, List<String> idlist, String fastaFile, String tempDir, String method, int blastCores) throws IOException, InterruptedException {
 		if (method.equals("spmap")) {
 			predictBatchSPMAP.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir);
 		} else if (method.equals("blast")) {
-			predictBatchBLAST.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, blastThreads);
+			predictBatchBLAST.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, blastCores);
 		} else if (method.equals("pepstats")) {
 			predictBatchPEPSTATS.main(args, ecnums, time, ROOTPATH, fastaFile, tempDir);
-		} else if (method.equals("weighted")) {
-			// If cpu > 12, run SPMAP and PEPSTATS concurrently, BLAST sequentially
-			try {
-				predictBatchBLAST.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir, blastThreads);
-				if (blastThreads >= 2) { // cpu > 12
-					Thread spmapThread = new Thread(() -> {
-						try {
-							predictBatchSPMAP.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir);
-						} catch (Exception e) {
-							throw new RuntimeException(e);
-						}
-					});
-					Thread pepstatsThread = new Thread(() -> {
-						try {
-							predictBatchPEPSTATS.main(args, ecnums, time, ROOTPATH, fastaFile, tempDir);
-						} catch (Exception e) {
-							throw new RuntimeException(e);
-						}
-					});
-					spmapThread.start();
-					pepstatsThread.start();
-					spmapThread.join();
-					pepstatsThread.join();
-				} else {
-					predictBatchSPMAP.main(args, ecnums, time, ROOTPATH, idlist, fastaFile, tempDir);
-					predictBatchPEPSTATS.main(args, ecnums, time, ROOTPATH, fastaFile, tempDir);
-				}
-			} catch (Exception e) {
-				System.err.println("Error in weighted method prediction: " + e.getMessage());
-				e.printStackTrace();
-				throw new IOException("Weighted method execution failed", e);
-			}
 		}
 	}
 
-	private HashMap<String, Double> loadThresholds(String ROOTPATH) throws IOException {
+	HashMap<String, Double> loadThresholds(String ROOTPATH) throws IOException {
 		HashMap<String, Double> thresholds = new HashMap<>();
 		BufferedReader br = new BufferedReader(new FileReader(ROOTPATH.substring(0, ROOTPATH.length() - 3) + "/subclasses/thresholds.txt"));
 		String line;
@@ -201,14 +248,19 @@ public class runEC {
 		return combined;
 	}
 
-	private void writePredictionFile(Vector<String> combined, String tempDir, long time, String ecnum, List<String> idlist) throws IOException {
-		DecimalFormat df = new DecimalFormat();
-		df.setMaximumFractionDigits(2);
+	/**
+	 * Write the rounded scores of one EC to its _preds.txt; returns them
+	 */
+	private Vector<String> writePredictionFile(Vector<String> combined, String tempDir, long time, String ecnum, List<String> idlist) throws IOException {
+		Vector<String> scores = new Vector<>();
 		BufferedWriter final_file = new BufferedWriter(new FileWriter(tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnum + File.separator + ecnum + "_preds.txt", false));
 		for (int j = 0; j < idlist.size(); j++) {
-			final_file.write(df.format(Double.parseDouble(combined.get(j))) + "\n");
+			String score = formatScore(Double.parseDouble(combined.get(j)));
+			scores.add(score);
+			final_file.write(score + "\n");
 		}
 		final_file.close();
+		return scores;
 	}
 
 	private void processMainClassPredictions(Vector<String> ecnums, String tempDir, long time, String ROOTPATH, List<String> idlist, HashMap<String, Double> thresholds, HashMap<String, Vector<Vector<String>>> predictions) throws IOException {
@@ -229,53 +281,68 @@ public class runEC {
 		// Process each protein - thread-safe with synchronized blocks
 		for (int i = 0; i < idlist.size(); i++) {
 			Vector<Vector<String>> predswithScore = new Vector<>();
-			Vector<String> preds = new Vector<>();
-			double maxPred = 0.0;
-			String mainClass = null;
-			
-			// Find the class with highest prediction
+			List<String> scores = new ArrayList<>();
 			for (int j = 0; j < allPreds.size(); j++) {
-				double currentPred = Double.parseDouble(allPreds.get(j).get(i));
-				if (currentPred > maxPred) {
-					maxPred = currentPred;
-					mainClass = String.valueOf((j + 1)) + ".-.-.-";
-				}
-			}
-
-			// Classify based on thresholds
-			if (maxPred < NON_ENZYME_THRESHOLD) {
-				preds.add("non");
-				preds.add(String.valueOf(1.0 - maxPred));
-			} else if (maxPred >= thresholds.get(mainClass)) {
-				preds.add(mainClass);
-				preds.add(String.valueOf(maxPred));
-			} else {
-				preds.add("nop");
-				preds.add("0");
+				scores.add(allPreds.get(j).get(i));
 			}
-			
-			predswithScore.add(preds);
+			predswithScore.add(decideMainClass(scores, thresholds));
 			synchronized(predictions) {
 				predictions.put(idlist.get(i), predswithScore);
 			}
 		}
 	}
 
-	private void processSubclassPredictions(Vector<String> ecnums, String tempDir, long time, HashMap<String, Double> thresholds, HashMap<String, Vector<Vector<String>>> predictions, List<String> idlist) throws IOException {
+	/**
+	 * Main class of one protein from the rounded scores of the six main
+	 * classes, in class order: {class, score}, {"non", 1 - best score} or
+	 * {"nop", "0"}
+	 */
+	static Vector<String> decideMainClass(List<String> scores, HashMap<String, Double> thresholds) {
+		Vector<String> preds = new Vector<>();
+		double maxPred = 0.0;
+		String mainClass = null;
+		
+		// Find the class with highest prediction
+		for (int j = 0; j < scores.size(); j++) {
+			double currentPred = Double.parseDouble(scores.get(j));
+			if (currentPred > maxPred) {
+				maxPred = currentPred;
+				mainClass = String.valueOf((j + 1)) + ".-.-.-";
+			}
+		}
+
+		// Classify based on thresholds
+		if (maxPred < NON_ENZYME_THRESHOLD) {
+			preds.add("non");
+			preds.add(String.valueOf(1.0 - maxPred));
+		} else if (maxPred >= thresholds.get(mainClass)) {
+			preds.add(mainClass);
+			preds.add(String.valueOf(maxPred));
+		} else {
+			preds.add("nop");
+			preds.add("0");
+		}
+		return preds;
+	}
+
+	/**
+	 * Best subclass of one protein from the rounded scores of ecnums:
+	 * {EC, score} or {"nop", "0"} if none passes its threshold
+	 */
+	static Vector<String> decideSubclass(List<String> ecnums, List<String> scores, HashMap<String, Double> thresholds) {
 		double maxPred = 0.0;
 		Vector<String> preds = new Vector<>();
 		
 		// Find best subclass prediction
 		for (int i = 0; i < ecnums.size(); i++) {
-			List<String> pred = Files.readAllLines(Paths.get(tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnums.get(i) + File.separator + ecnums.get(i) + "_preds.txt"));
 			String predClass = ecnums.get(i);
-			double currentPred = Double.parseDouble(pred.get(0));
+			double currentPred = Double.parseDouble(scores.get(i));
 			
 			if (currentPred >= thresholds.get(predClass) && currentPred > maxPred) {
 				maxPred = currentPred;
 				preds = new Vector<>();
 				preds.add(predClass);
-				preds.add(pred.get(0));
+				preds.add(scores.get(i));
 			}
 		}
 		
@@ -283,6 +350,25 @@ public class runEC {
 			preds.add("nop");
 			preds.add("0");
 		}
+		return preds;
+	}
+
+	/**
+	 * Score as written to _preds.txt, rounded to two decimals
+	 */
+	static String formatScore(double score) {
+		DecimalFormat df = new DecimalFormat();
+		df.setMaximumFractionDigits(2);
+		return df.format(score);
+	}
+
+	private void processSubclassPredictions(Vector<String> ecnums, String tempDir, long time, HashMap<String, Double> thresholds, HashMap<String, Vector<Vector<String>>> predictions, List<String> idlist) throws IOException {
+		List<String> scores = new ArrayList<>();
+		for (int i = 0; i < ecnums.size(); i++) {
+			List<String> pred = Files.readAllLines(Paths.get(tempDir + File.separator + "testResult" + File.separator + time + File.separator + ecnums.get(i) + File.separator + ecnums.get(i) + "_preds.txt"));
+			scores.add(pred.get(0));
+		}
+		Vector<String> preds = decideSubclass(ecnums, scores, thresholds);
 
 		// Add prediction to existing protein's prediction vector - thread-safe
 		synchronized(predictions) {
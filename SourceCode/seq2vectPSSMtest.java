@@ -1,317 +1,583 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class seq2vectPSSMtest
-{
-  private static final int MAX_PROTEIN_ID_LENGTH = 80;
-  private static final int MIN_SUBSEQUENCE_COUNT = 6;
-  private static final int[] AA_INDEX = new int[26];
-  private static final int AA_COUNT = 20;
-  private static final String AA_ORDER = "ARNDCQEGHILKMFPSTWYV";
-  private static final ConcurrentHashMap<String, Map<String, String>> FASTA_CACHE = new ConcurrentHashMap<>();
-  private static final ConcurrentHashMap<String, PSSMProfile> PSSM_CACHE = new ConcurrentHashMap<>();
-  
-  static {
-    Arrays.fill(AA_INDEX, -1);
-    for (int i = 0; i < AA_ORDER.length(); i++) {
-      AA_INDEX[AA_ORDER.charAt(i) - 'A'] = i;
-    }
-  }
-  
-  public static HashMap<String, String> getFastaOrg(String file)
-    throws IOException
-  {
-    HashMap<String, String> fasta_dict = new HashMap<>();
-    String prot_id = "";
-    String prot_seq = "";
-    
-    BufferedReader br = new BufferedReader(new FileReader(file));
-    String line = br.readLine();
-    while (line != null)
-    {
-      if (line.startsWith(">"))
-      {
-        prot_seq = "";
-        StringTokenizer st1 = new StringTokenizer(line, "|");
-        line = line.replaceAll("/", "");
-        line = line.trim().replaceAll(" +", "");
-        if (line.length() > MAX_PROTEIN_ID_LENGTH) {
-          prot_id = line.substring(1, MAX_PROTEIN_ID_LENGTH + 1);
-        } else {
-          prot_id = line.substring(1, line.length());
-        }
-        line = br.readLine();
-        while (!line.startsWith(">"))
-        {
-          prot_seq = prot_seq + line;
-          line = br.readLine();
-          if (line == null) {
-            break;
-          }
-        }
-      }
-      fasta_dict.put(prot_id, prot_seq);
-    }
-    br.close();
-    return fasta_dict;
-  }
-  
-  public static float calculateVectors(int signifThreshold, int subseqlen, String ECNumber, List<String> targetList, String filename, long time, String ROOTPATH, String tempDir)
-    throws IOException
-  {
-    Map<String, String> fastaDict = getCachedFasta(filename);
-    PSSMProfile profile = getCachedPSSMProfile(ROOTPATH, ECNumber, subseqlen);
-    if (profile == null) {
-      return 0.0F;
-    }
-
-    List<double[]> vectors = new ArrayList<>();
-    int clusterCount = profile.weights.length;
-    
-    for (String targetId : targetList)
-    {
-      String sequence = fastaDict.get(targetId);
-      if (sequence == null || sequence.length() < subseqlen) {
-        // Add a zero vector for short/missing sequences instead of skipping
-        double[] zeroVector = new double[clusterCount];
-        Arrays.fill(zeroVector, 0.0);
-        vectors.add(zeroVector);
-        continue;
-      }
-
-      double[] bestScores = computeBestScores(sequence, profile, subseqlen);
-      if (bestScores == null) {
-        // Add a zero vector for sequences that couldn't be processed
-        double[] zeroVector = new double[clusterCount];
-        Arrays.fill(zeroVector, 0.0);
-        vectors.add(zeroVector);
-        continue;
-      }
-
-      applySignificanceThreshold(bestScores, signifThreshold, subseqlen);
-      vectors.add(bestScores);
-    }
-
-    writeVectors(ECNumber, vectors, time, tempDir);
-    return 0.0F;
-  }
-  
-  private static Map<String, String> getCachedFasta(String filename) throws IOException {
-    Map<String, String> cached = FASTA_CACHE.get(filename);
-    if (cached != null) {
-      return cached;
-    }
-    Map<String, String> loaded = Collections.unmodifiableMap(getFastaOrg(filename));
-    Map<String, String> existing = FASTA_CACHE.putIfAbsent(filename, loaded);
-    return existing != null ? existing : loaded;
-  }
-
-  private static PSSMProfile getCachedPSSMProfile(String ROOTPATH, String ECNumber, int subseqlen) throws IOException {
-    PSSMProfile cached = PSSM_CACHE.get(ECNumber);
-    if (cached != null) {
-      return cached;
-    }
-    PSSMProfile profile = loadPSSMProfile(ROOTPATH, ECNumber, subseqlen);
-    if (profile == null) {
-      return null;
-    }
-    PSSMProfile existing = PSSM_CACHE.putIfAbsent(ECNumber, profile);
-    return existing != null ? existing : profile;
-  }
-
-  private static PSSMProfile loadPSSMProfile(String ROOTPATH, String ECNumber, int subseqlen)
-    throws IOException
-  {
-    Path profilePath = Paths.get(ROOTPATH + File.separator + ECNumber + "/spmap/profile.txt", new String[0]);
-    if (!Files.exists(profilePath)) {
-      return null;
-    }
-
-    List<String> lines = Files.readAllLines(profilePath);
-    if (lines.isEmpty()) {
-      return null;
-    }
-
-    int numberOfCluster = lines.size() / subseqlen;
-    double[][][] weights = new double[numberOfCluster][subseqlen][AA_COUNT];
-    int count = 0;
-
-    for (int cluster = 0; cluster < numberOfCluster; cluster++)
-    {
-      for (int position = 0; position < subseqlen; position++)
-      {
-        String line = lines.get(count++);
-        StringTokenizer st1 = new StringTokenizer(line, "\t");
-        String list = null;
-        while (st1.hasMoreElements()) {
-          list = st1.nextToken();
-        }
-        if (list == null) {
-          continue;
-        }
-        String[] aaTokens = list.split("\\s*,\\s*");
-        for (int idx = 0; idx + 1 < aaTokens.length; idx += 2) {
-          int aaIndex = toAminoAcidIndex(aaTokens[idx]);
-          if (aaIndex >= 0) {
-            weights[cluster][position][aaIndex] = parseDoubleSafe(aaTokens[idx + 1]);
-          }
-        }
-      }
-    }
-    return new PSSMProfile(weights);
-  }
-
-  private static double parseDoubleSafe(String value) {
-    try {
-      return Double.parseDouble(value);
-    } catch (NumberFormatException ex) {
-      return 0.0D;
-    }
-  }
-
-  private static int toAminoAcidIndex(String token) {
-    if (token == null || token.isEmpty()) {
-      return -1;
-    }
-    char c = Character.toUpperCase(token.charAt(0));
-    if (c < 'A' || c > 'Z') {
-      return -1;
-    }
-    return AA_INDEX[c - 'A'];
-  }
-
-  private static double[] computeBestScores(String sequence, PSSMProfile profile, int subseqlen) {
-    int clusterCount = profile.weights.length;
-    if (clusterCount == 0 || sequence.length() < subseqlen || sequence.length() < MIN_SUBSEQUENCE_COUNT) {
-      return null;
-    }
-
-    double[] bestScores = new double[clusterCount];
-    Arrays.fill(bestScores, Double.NEGATIVE_INFINITY);
-    char[] chars = sequence.toCharArray();
-    int[] aaIdxBuffer = new int[subseqlen];
-
-    for (int start = 0; start <= chars.length - subseqlen; start++)
-    {
-      boolean valid = true;
-      for (int offset = 0; offset < subseqlen; offset++)
-      {
-        char residue = Character.toUpperCase(chars[start + offset]);
-        if (residue < 'A' || residue > 'Z') {
-          valid = false;
-          break;
-        }
-        int aaIndex = AA_INDEX[residue - 'A'];
-        if (aaIndex < 0) {
-          valid = false;
-          break;
-        }
-        aaIdxBuffer[offset] = aaIndex;
-      }
-
-      if (!valid) {
-        continue;
-      }
-
-      for (int cluster = 0; cluster < clusterCount; cluster++)
-      {
-        double sum = 0.0D;
-        double[][] clusterWeights = profile.weights[cluster];
-        for (int position = 0; position < subseqlen; position++)
-        {
-          sum += clusterWeights[position][aaIdxBuffer[position]];
-        }
-        if (sum > bestScores[cluster]) {
-          bestScores[cluster] = sum;
-        }
-      }
-    }
-
-    boolean hasValid = false;
-    for (double score : bestScores) {
-      if (score != Double.NEGATIVE_INFINITY) {
-        hasValid = true;
-        break;
-      }
-    }
-    if (!hasValid) {
-      return null;
-    }
-    return bestScores;
-  }
-
-  private static void applySignificanceThreshold(double[] scores, int signifThreshold, int subseqlen) {
-    for (int i = 0; i < scores.length; i++) {
-      double value = scores[i];
-      if (value == Double.NEGATIVE_INFINITY || value < signifThreshold) {
-        scores[i] = 0.0D;
-      } else {
-        scores[i] = Math.exp(value / subseqlen);
-      }
-    }
-  }
-
-  public static void writeVectors(String ECNumber, List<double[]> result, long time, String tempDir)
-    throws IOException
-  {
-    Path outputPath = Paths.get(tempDir, "testResult", String.valueOf(time), ECNumber, "spmap", "test.vec");
-    Files.createDirectories(outputPath.getParent());
-    try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
-      for (double[] vector : result)
-      {
-        StringBuilder sb = new StringBuilder("1");
-        for (int key = 0; key < vector.length; key++) {
-          sb.append(' ').append(key + 1).append(':').append(vector[key]);
-        }
-        writer.write(sb.toString());
-        writer.newLine();
-      }
-    }
-  }
-
-  private static class PSSMProfile {
-    private final double[][][] weights;
-
-    private PSSMProfile(double[][][] weights) {
-      this.weights = weights;
-    }
-  }
-  
-  public static HashMap<String, Integer> readBLOSUM62Matrix()
-    throws IOException
-  {
-    String aa_letters = "A,R,N,D,C,Q,E,G,H,I,L,K,M,F,P,S,T,W,Y,V";
-    String[] lst_aa_letters = aa_letters.split(",");
-    HashMap<String, Integer> blosum_dict = new HashMap<>();
-    BufferedReader br = new BufferedReader(new FileReader("blo62.csv"));
-    String[] blo62_mat = null;
-    
-    int i = 0;
-    String line;
-    while ((line = br.readLine()) != null)
-    {
-
-      blo62_mat = line.split(",");
-      for (int j = 0; j < blo62_mat.length; j++) {
-        blosum_dict.put(lst_aa_letters[i] + "," + lst_aa_letters[j], Integer.valueOf(Integer.parseInt(blo62_mat[j])));
-      }
-      i++;
-    }
-    return blosum_dict;
-  }
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+public class seq2vectPSSMtest
+{
+  private static final int MAX_PROTEIN_ID_LENGTH = 80;
+  private static final int MIN_SUBSEQUENCE_COUNT = 6;
+  private static final int[] AA_INDEX = new int[26];
+  private static final int AA_COUNT = 20;
+  private static final String AA_ORDER = "ARNDCQEGHILKMFPSTWYV";
+  private static final ConcurrentHashMap<String, Map<String, String>> FASTA_CACHE = new ConcurrentHashMap<>();
+  // Profiles by EC directory (ROOTPATH/ECNumber), so libraries loaded in one JVM stay apart
+  private static final ConcurrentHashMap<String, PSSMProfile> PSSM_CACHE = new ConcurrentHashMap<>();
+  // Score windows from per-profile prefix/suffix k-mer tables (-Decpred.spmap.kmerTables=true)
+  private static final boolean KMER_TABLES = ECPredConfig.getBoolean("spmap.kmerTables", false);
+  // Profiles whose tables would be larger than this are scored position by position
+  private static final long KMER_TABLE_MAX_BYTES = ECPredConfig.getInt("spmap.kmerTables.maxMB", 64) * 1024L * 1024L;
+  // Sequences with more distinct windows than this are scored in parallel tiles
+  private static final int TILE_LENGTH = Math.max(1, ECPredConfig.getInt("spmap.tileLength", 4096));
+  
+  static {
+    Arrays.fill(AA_INDEX, -1);
+    for (int i = 0; i < AA_ORDER.length(); i++) {
+      AA_INDEX[AA_ORDER.charAt(i) - 'A'] = i;
+    }
+  }
+  
+  public static HashMap<String, String> getFastaOrg(String file)
+    throws IOException
+  {
+    HashMap<String, String> fasta_dict = new HashMap<>();
+    String prot_id = "";
+    String prot_seq = "";
+    
+    BufferedReader br = new BufferedReader(new FileReader(file));
+    String line = br.readLine();
+    while (line != null)
+    {
+      if (line.startsWith(">"))
+      {
+        prot_seq = "";
+        StringTokenizer st1 = new StringTokenizer(line, "|");
+        line = line.replaceAll("/", "");
+        line = line.trim().replaceAll(" +", "");
+        if (line.length() > MAX_PROTEIN_ID_LENGTH) {
+          prot_id = line.substring(1, MAX_PROTEIN_ID_LENGTH + 1);
+        } else {
+          prot_id = line.substring(1, line.length());
+        }
+        line = br.readLine();
+        while (!line.startsWith(">"))
+        {
+          prot_seq = prot_seq + line;
+          line = br.readLine();
+          if (line == null) {
+            break;
+          }
+        }
+      }
+      fasta_dict.put(prot_id, prot_seq);
+    }
+    br.close();
+    return fasta_dict;
+  }
+  
+  public static float calculateVectors(int signifThreshold, int subseqlen, String ECNumber, List<String> targetList, String filename, long time, String ROOTPATH, String tempDir)
+    throws IOException
+  {
+    calculateVectors(signifThreshold, subseqlen, Collections.singletonList(ECNumber), targetList, filename, time, ROOTPATH, tempDir);
+    return 0.0F;
+  }
+  
+  /**
+   * Vectors of several ECs in one pass over the sequences: the windows of
+   * each sequence are encoded once and scored against the profiles of all
+   * ECs. Blocks of sequences are scored in parallel on the data-level pool; one
+   * test.vec is written per EC that has a profile.
+   */
+  public static void calculateVectors(int signifThreshold, int subseqlen, List<String> ECNumbers, List<String> targetList, String filename, long time, String ROOTPATH, String tempDir)
+    throws IOException
+  {
+    Map<String, String> fastaDict = getCachedFasta(filename);
+    List<String> profiledECs = new ArrayList<>();
+    List<PSSMProfile> profiles = new ArrayList<>();
+    for (String ECNumber : ECNumbers)
+    {
+      try {
+        PSSMProfile profile = getCachedPSSMProfile(ROOTPATH, ECNumber, subseqlen);
+        if (profile != null) {
+          profiledECs.add(ECNumber);
+          profiles.add(profile);
+        }
+      } catch (IOException e) {
+        // The other ECs of the batch are still scored
+        System.err.println("Error loading SPMAP profile of EC " + ECNumber + ": " + e.getMessage());
+      }
+    }
+    if (profiles.isEmpty()) {
+      return;
+    }
+
+    double[][][] vectors = new double[profiles.size()][targetList.size()][];
+    try {
+      ParallelExecutor.getInstance().forEachBlock(targetList.size(), (from, to) -> {
+        for (int t = from; t < to; t++) {
+          long[] windows = encodeWindows(fastaDict.get(targetList.get(t)), subseqlen);
+          for (int e = 0; e < profiles.size(); e++) {
+            vectors[e][t] = scoreVector(windows, profiles.get(e), signifThreshold, subseqlen);
+          }
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("SPMAP scoring interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("SPMAP scoring failed", e.getCause());
+    }
+
+    for (int e = 0; e < profiles.size(); e++) {
+      writeVectors(profiledECs.get(e), Arrays.asList(vectors[e]), time, tempDir);
+    }
+  }
+
+  /**
+   * SPMAP vector of one sequence for one EC, without writing test.vec;
+   * windows come from encodeWindows. Returns null if the EC has no profile.
+   */
+  static double[] scoreSequence(int signifThreshold, int subseqlen, String ECNumber, long[] windows, String ROOTPATH)
+    throws IOException, InterruptedException, ExecutionException
+  {
+    PSSMProfile profile = getCachedPSSMProfile(ROOTPATH, ECNumber, subseqlen);
+    return profile == null ? null : scoreVector(windows, profile, signifThreshold, subseqlen);
+  }
+
+  /**
+   * Load the profile of an EC into the cache ahead of its first use
+   */
+  static void preloadProfile(String ROOTPATH, String ECNumber, int subseqlen) throws IOException {
+    getCachedPSSMProfile(ROOTPATH, ECNumber, subseqlen);
+  }
+
+  /**
+   * Distinct windows of a sequence, or null if it is missing or too short to score
+   */
+  static long[] encodeWindows(String sequence, int subseqlen) {
+    if (sequence == null || sequence.length() < subseqlen || sequence.length() < MIN_SUBSEQUENCE_COUNT) {
+      return null;
+    }
+    // Repeated subsequences are scored once
+    return distinctWindows(encodeResidues(sequence), subseqlen);
+  }
+
+  private static double[] scoreVector(long[] windows, PSSMProfile profile, int signifThreshold, int subseqlen)
+    throws InterruptedException, ExecutionException
+  {
+    double[] bestScores = windows == null ? null : computeBestScores(windows, profile, subseqlen);
+    if (bestScores == null) {
+      // Zero vector for short/missing sequences instead of skipping
+      return new double[profile.clusterCount];
+    }
+    applySignificanceThreshold(bestScores, signifThreshold, subseqlen);
+    return bestScores;
+  }
+  
+  /**
+   * Drop the cached sequences of the FASTA files whose path starts with prefix
+   */
+  static void evictFastas(String prefix) {
+    FASTA_CACHE.keySet().removeIf(filename -> filename.startsWith(prefix));
+  }
+
+  private static Map<String, String> getCachedFasta(String filename) throws IOException {
+    Map<String, String> cached = FASTA_CACHE.get(filename);
+    if (cached != null) {
+      return cached;
+    }
+    Map<String, String> loaded = Collections.unmodifiableMap(getFastaOrg(filename));
+    Map<String, String> existing = FASTA_CACHE.putIfAbsent(filename, loaded);
+    return existing != null ? existing : loaded;
+  }
+
+  private static PSSMProfile getCachedPSSMProfile(String ROOTPATH, String ECNumber, int subseqlen) throws IOException {
+    String key = ROOTPATH + File.separator + ECNumber;
+    PSSMProfile cached = PSSM_CACHE.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    PSSMProfile profile = loadPSSMProfile(ROOTPATH, ECNumber, subseqlen);
+    if (profile == null) {
+      return null;
+    }
+    PSSMProfile existing = PSSM_CACHE.putIfAbsent(key, profile);
+    return existing != null ? existing : profile;
+  }
+
+  private static PSSMProfile loadPSSMProfile(String ROOTPATH, String ECNumber, int subseqlen)
+    throws IOException
+  {
+    String spmapDir = ROOTPATH + File.separator + ECNumber + File.separator + "spmap";
+    Path compiledPath = SPMAPProfileFile.compiledPath(spmapDir);
+    double[] weights = compiledPath != null
+      ? SPMAPProfileFile.read(compiledPath, subseqlen, AA_COUNT)
+      : readTextProfile(Paths.get(spmapDir, "profile.txt"), subseqlen);
+    if (weights == null) {
+      return null;
+    }
+    return new PSSMProfile(weights, weights.length / (subseqlen * AA_COUNT));
+  }
+
+  /**
+   * Compile the profile.txt of an EC into spmap/profile.bin.
+   * Returns false if the EC has no profile.
+   */
+  static boolean compileProfile(String ROOTPATH, String ECNumber, int subseqlen)
+    throws IOException
+  {
+    String spmapDir = ROOTPATH + File.separator + ECNumber + File.separator + "spmap";
+    double[] weights = readTextProfile(Paths.get(spmapDir, "profile.txt"), subseqlen);
+    if (weights == null) {
+      return false;
+    }
+    SPMAPProfileFile.write(Paths.get(spmapDir, SPMAPProfileFile.FILE_NAME), weights, weights.length / (subseqlen * AA_COUNT), subseqlen, AA_COUNT);
+    return true;
+  }
+
+  private static double[] readTextProfile(Path profilePath, int subseqlen)
+    throws IOException
+  {
+    if (!Files.exists(profilePath)) {
+      return null;
+    }
+
+    List<String> lines = Files.readAllLines(profilePath);
+    if (lines.isEmpty()) {
+      return null;
+    }
+
+    int numberOfCluster = lines.size() / subseqlen;
+    double[] weights = new double[subseqlen * AA_COUNT * numberOfCluster];
+    int count = 0;
+
+    for (int cluster = 0; cluster < numberOfCluster; cluster++)
+    {
+      for (int position = 0; position < subseqlen; position++)
+      {
+        String line = lines.get(count++);
+        StringTokenizer st1 = new StringTokenizer(line, "\t");
+        String list = null;
+        while (st1.hasMoreElements()) {
+          list = st1.nextToken();
+        }
+        if (list == null) {
+          continue;
+        }
+        String[] aaTokens = list.split("\\s*,\\s*");
+        for (int idx = 0; idx + 1 < aaTokens.length; idx += 2) {
+          int aaIndex = toAminoAcidIndex(aaTokens[idx]);
+          if (aaIndex >= 0) {
+            weights[(position * AA_COUNT + aaIndex) * numberOfCluster + cluster] = parseDoubleSafe(aaTokens[idx + 1]);
+          }
+        }
+      }
+    }
+    return weights;
+  }
+
+  private static double parseDoubleSafe(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException ex) {
+      return 0.0D;
+    }
+  }
+
+  private static int toAminoAcidIndex(String token) {
+    if (token == null || token.isEmpty()) {
+      return -1;
+    }
+    char c = Character.toUpperCase(token.charAt(0));
+    if (c < 'A' || c > 'Z') {
+      return -1;
+    }
+    return AA_INDEX[c - 'A'];
+  }
+
+  private static double[] computeBestScores(long[] windows, PSSMProfile profile, int subseqlen)
+    throws InterruptedException, ExecutionException
+  {
+    int clusterCount = profile.clusterCount;
+    if (clusterCount == 0) {
+      return null;
+    }
+
+    double[] bestScores;
+    if (windows.length <= TILE_LENGTH) {
+      bestScores = scoreWindows(windows, 0, windows.length, profile, subseqlen);
+    } else {
+      // Long sequences: tiles of windows are scored in parallel, each keeping
+      // its own per-cluster maxima, and reduced here
+      double[][] tileScores = new double[(windows.length + TILE_LENGTH - 1) / TILE_LENGTH][];
+      ParallelExecutor.getInstance().forEachBlock(windows.length, TILE_LENGTH, (from, to) ->
+        tileScores[from / TILE_LENGTH] = scoreWindows(windows, from, to, profile, subseqlen));
+      bestScores = tileScores[0];
+      for (int tile = 1; tile < tileScores.length; tile++) {
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+          bestScores[cluster] = Math.max(bestScores[cluster], tileScores[tile][cluster]);
+        }
+      }
+    }
+
+    boolean hasValid = false;
+    for (double score : bestScores) {
+      if (score != Double.NEGATIVE_INFINITY) {
+        hasValid = true;
+        break;
+      }
+    }
+    if (!hasValid) {
+      return null;
+    }
+    return bestScores;
+  }
+
+  /**
+   * Per-cluster best scores over windows[from, to), NEGATIVE_INFINITY where no window scored
+   */
+  private static double[] scoreWindows(long[] windows, int from, int to, PSSMProfile profile, int subseqlen) {
+    int clusterCount = profile.clusterCount;
+    double[] bestScores = new double[clusterCount];
+    Arrays.fill(bestScores, Double.NEGATIVE_INFINITY);
+    KmerTables tables = KMER_TABLES ? profile.getKmerTables(subseqlen) : null;
+
+    if (tables != null)
+    {
+      for (int w = from; w < to; w++)
+      {
+        long window = windows[w];
+        int prefixRow = (int) (window / tables.suffixCount) * clusterCount;
+        int suffixRow = (int) (window % tables.suffixCount) * clusterCount;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+          double score = tables.prefix[prefixRow + cluster] + tables.suffix[suffixRow + cluster];
+          if (score > bestScores[cluster]) {
+            bestScores[cluster] = score;
+          }
+        }
+      }
+    }
+    else
+    {
+      double[] weights = profile.weights;
+      double[] windowScores = new double[clusterCount];
+      int[] windowResidues = new int[subseqlen];
+      int positionStride = AA_COUNT * clusterCount;
+
+      // Windows are scored for all clusters at once; each (position, residue)
+      // row of the profile is contiguous over clusters
+      for (int w = from; w < to; w++)
+      {
+        decodeWindow(windows[w], windowResidues);
+        Arrays.fill(windowScores, 0.0D);
+        for (int position = 0; position < subseqlen; position++)
+        {
+          int row = position * positionStride + windowResidues[position] * clusterCount;
+          for (int cluster = 0; cluster < clusterCount; cluster++) {
+            windowScores[cluster] += weights[row + cluster];
+          }
+        }
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+          if (windowScores[cluster] > bestScores[cluster]) {
+            bestScores[cluster] = windowScores[cluster];
+          }
+        }
+      }
+    }
+
+    return bestScores;
+  }
+
+  /**
+   * Profile indices of the residues of a sequence, -1 for residues outside AA_ORDER
+   */
+  private static int[] encodeResidues(String sequence) {
+    int[] residues = new int[sequence.length()];
+    for (int i = 0; i < residues.length; i++) {
+      char residue = Character.toUpperCase(sequence.charAt(i));
+      residues[i] = (residue < 'A' || residue > 'Z') ? -1 : AA_INDEX[residue - 'A'];
+    }
+    return residues;
+  }
+
+  /**
+   * Sorted distinct codes (base AA_COUNT, first residue most significant) of
+   * the windows of a sequence that contain only profile residues
+   */
+  private static long[] distinctWindows(int[] residues, int subseqlen) {
+    long[] windows = new long[Math.max(0, residues.length - subseqlen + 1)];
+    long modulus = pow(AA_COUNT, subseqlen - 1);
+    int count = 0;
+    int validRun = 0;
+    long code = 0;
+    for (int end = 0; end < residues.length; end++)
+    {
+      if (residues[end] < 0) {
+        validRun = 0;
+        code = 0;
+        continue;
+      }
+      code = (code % modulus) * AA_COUNT + residues[end];
+      if (++validRun >= subseqlen) {
+        windows[count++] = code;
+      }
+    }
+    Arrays.sort(windows, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || windows[i] != windows[distinct - 1]) {
+        windows[distinct++] = windows[i];
+      }
+    }
+    return Arrays.copyOf(windows, distinct);
+  }
+
+  private static void decodeWindow(long window, int[] windowResidues) {
+    for (int position = windowResidues.length - 1; position >= 0; position--) {
+      windowResidues[position] = (int) (window % AA_COUNT);
+      window /= AA_COUNT;
+    }
+  }
+
+  private static long pow(int base, int exp) {
+    long result = 1;
+    for (int i = 0; i < exp; i++) {
+      result *= base;
+    }
+    return result;
+  }
+
+  private static void applySignificanceThreshold(double[] scores, int signifThreshold, int subseqlen) {
+    for (int i = 0; i < scores.length; i++) {
+      double value = scores[i];
+      if (value == Double.NEGATIVE_INFINITY || value < signifThreshold) {
+        scores[i] = 0.0D;
+      } else {
+        scores[i] = Math.exp(value / subseqlen);
+      }
+    }
+  }
+
+  public static void writeVectors(String ECNumber, List<double[]> result, long time, String tempDir)
+    throws IOException
+  {
+    Path outputPath = Paths.get(tempDir, "testResult", String.valueOf(time), ECNumber, "spmap", "test.vec");
+    Files.createDirectories(outputPath.getParent());
+    try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+      for (double[] vector : result)
+      {
+        StringBuilder sb = new StringBuilder("1");
+        for (int key = 0; key < vector.length; key++) {
+          sb.append(' ').append(key + 1).append(':').append(vector[key]);
+        }
+        writer.write(sb.toString());
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Cluster profiles in one position-major array:
+   * weights[(position * AA_COUNT + aa) * clusterCount + cluster]
+   */
+  private static class PSSMProfile {
+    private final double[] weights;
+    private final int clusterCount;
+    private KmerTables kmerTables;
+    private boolean kmerTablesBuilt;
+
+    private PSSMProfile(double[] weights, int clusterCount) {
+      this.weights = weights;
+      this.clusterCount = clusterCount;
+    }
+
+    /**
+     * Prefix/suffix tables of this profile, built on first use, or null if
+     * they would exceed KMER_TABLE_MAX_BYTES
+     */
+    private synchronized KmerTables getKmerTables(int subseqlen) {
+      if (!kmerTablesBuilt) {
+        kmerTables = KmerTables.build(weights, clusterCount, subseqlen);
+        kmerTablesBuilt = true;
+      }
+      return kmerTables;
+    }
+  }
+
+  /**
+   * Window scores split into a prefix and a suffix k-mer table (2-mer and
+   * 3-mer for subseqlen 5): prefix[kmer * clusterCount + cluster] is the sum
+   * of the profile weights of the first positions, suffix likewise for the rest.
+   */
+  private static class KmerTables {
+    private final double[] prefix;
+    private final double[] suffix;
+    private final long suffixCount;
+
+    private KmerTables(double[] prefix, double[] suffix, long suffixCount) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+      this.suffixCount = suffixCount;
+    }
+
+    private static KmerTables build(double[] weights, int clusterCount, int subseqlen) {
+      int prefixLength = subseqlen / 2;
+      long prefixCount = pow(AA_COUNT, prefixLength);
+      long suffixCount = pow(AA_COUNT, subseqlen - prefixLength);
+      long bytes = (prefixCount + suffixCount) * clusterCount * Double.BYTES;
+      if (bytes > KMER_TABLE_MAX_BYTES || bytes > Integer.MAX_VALUE) {
+        return null;
+      }
+      double[] prefix = table(weights, clusterCount, 0, prefixLength);
+      double[] suffix = table(weights, clusterCount, prefixLength, subseqlen - prefixLength);
+      return new KmerTables(prefix, suffix, suffixCount);
+    }
+
+    private static double[] table(double[] weights, int clusterCount, int firstPosition, int length) {
+      int kmerCount = (int) pow(AA_COUNT, length);
+      double[] table = new double[kmerCount * clusterCount];
+      int[] kmerResidues = new int[length];
+      int positionStride = AA_COUNT * clusterCount;
+      for (int kmer = 0; kmer < kmerCount; kmer++)
+      {
+        decodeWindow(kmer, kmerResidues);
+        int out = kmer * clusterCount;
+        for (int position = 0; position < length; position++)
+        {
+          int row = (firstPosition + position) * positionStride + kmerResidues[position] * clusterCount;
+          for (int cluster = 0; cluster < clusterCount; cluster++) {
+            table[out + cluster] += weights[row + cluster];
+          }
+        }
+      }
+      return table;
+    }
+  }
+  
+  public static HashMap<String, Integer> readBLOSUM62Matrix()
+    throws IOException
+  {
+    String aa_letters = "A,R,N,D,C,Q,E,G,H,I,L,K,M,F,P,S,T,W,Y,V";
+    String[] lst_aa_letters = aa_letters.split(",");
+    HashMap<String, Integer> blosum_dict = new HashMap<>();
+    BufferedReader br = new BufferedReader(new FileReader("blo62.csv"));
+    String[] blo62_mat = null;
+    
+    int i = 0;
+    String line;
+    while ((line = br.readLine()) != null)
+    {
+
+      blo62_mat = line.split(",");
+      for (int j = 0; j < blo62_mat.length; j++) {
+        blosum_dict.put(lst_aa_letters[i] + "," + lst_aa_letters[j], Integer.valueOf(Integer.parseInt(blo62_mat[j])));
+      }
+      i++;
+    }
+    return blosum_dict;
+  }
 }
\ No newline at end of file
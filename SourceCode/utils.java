@@ -171,17 +171,18 @@ public class utils {
 		double[] neg = toDoubleArray(negLines);
 		double[] confs = new double[predLines.size()];
 
-		for (int i = 0; i < predLines.size(); i++) {
-			double value = parseDouble(predLines.get(i));
-			if (Double.isNaN(value)) {
-				confs[i] = 0.5;
-				continue;
-			}
-
-			double posConf = pos.length == 0 ? 0.5 : calculatePositiveConfidence(pos, value);
-			double negConf = neg.length == 0 ? 0.5 : calculateNegativeConfidence(neg, value);
-			double denom = posConf + negConf;
-			confs[i] = denom == 0.0 ? 0.5 : posConf / denom;
+		// Blocks of predictions are calibrated in parallel on the data-level pool
+		try {
+			ParallelExecutor.getInstance().forEachBlock(predLines.size(), (from, to) -> {
+				for (int i = from; i < to; i++) {
+					confs[i] = confidence(pos, neg, parseDouble(predLines.get(i)));
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Confidence calculation interrupted", e);
+		} catch (java.util.concurrent.ExecutionException e) {
+			throw new IOException("Confidence calculation failed", e.getCause());
 		}
 
 		try (PrintWriter final_file = new PrintWriter(cf, "UTF-8")) {
@@ -192,6 +193,27 @@ public class utils {
 		
 	}
 
+	/**
+	 * Confidence of one prediction value against the descending positive and
+	 * negative training predictions (ppreds.txt, npreds.txt)
+	 */
+	static double confidence(double[] pos, double[] neg, double value) {
+		if (Double.isNaN(value)) {
+			return 0.5;
+		}
+		double posConf = pos.length == 0 ? 0.5 : calculatePositiveConfidence(pos, value);
+		double negConf = neg.length == 0 ? 0.5 : calculateNegativeConfidence(neg, value);
+		double denom = posConf + negConf;
+		return denom == 0.0 ? 0.5 : posConf / denom;
+	}
+
+	/**
+	 * Values of a prediction file, one per line
+	 */
+	static double[] readValues(String file) throws IOException {
+		return toDoubleArray(Files.readAllLines(Paths.get(file)));
+	}
+
 	private static double[] toDoubleArray(List<String> values) {
 		double[] array = new double[values.size()];
 		for (int i = 0; i < values.size(); i++) {